@@ -0,0 +1,101 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//one player breaking blocks, through each of onBlockBreak's paths: an ordinary block, a protected block he can afford, and one he can't
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockBreakBenchmark
+{
+	private AntiXRay plugin;
+	private BlockEventHandler handler;
+	private PlayerData playerData;
+	private BlockBreakEvent unprotectedBreak;
+	private BlockBreakEvent protectedBreak;
+	
+	@Setup
+	public void setUp() throws Exception
+	{
+		World world = Standins.world("world");
+		this.plugin = Standins.plugin(world);
+		this.plugin.dataStore = new MemoryDataStore();
+		this.plugin.recentPlayerData = new RecentPlayerData(this.plugin.dataStore);
+		this.plugin.deliverPointsTask = new DeliverPointsTask(false);
+		this.handler = new BlockEventHandler(this.plugin.dataStore);
+		
+		Player player = Standins.player("Miner", world);
+		this.playerData = this.plugin.dataStore.getPlayerData(player);
+		
+		this.unprotectedBreak = new BlockBreakEvent(Standins.block(world, Material.STONE, 100, 12, 100), player);
+		this.protectedBreak = new BlockBreakEvent(Standins.block(world, Material.DIAMOND_ORE, 100, 12, 101), player);
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		this.plugin.placedBlocks.close(Collections.<World>emptyList());
+		this.plugin.dataStore.close();
+	}
+	
+	@Benchmark
+	public boolean unprotected()
+	{
+		this.handler.onBlockBreak(this.unprotectedBreak);
+		return this.unprotectedBreak.isCancelled();
+	}
+	
+	@Benchmark
+	public int protectedAllowed()
+	{
+		this.playerData.setPoints(Standins.MAX_POINTS);
+		this.handler.onBlockBreak(this.protectedBreak);
+		return this.playerData.getPoints();
+	}
+	
+	@Benchmark
+	public boolean protectedDenied()
+	{
+		this.playerData.setPoints(0);
+		this.handler.onBlockBreak(this.protectedBreak);
+		return this.protectedBreak.isCancelled();
+	}
+}
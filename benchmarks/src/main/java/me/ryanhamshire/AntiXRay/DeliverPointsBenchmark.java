@@ -0,0 +1,91 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//the points task with many players online.  tick is one run (what the server pays every tick), period is a full delivery cycle in which every player is visited once
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliverPointsBenchmark
+{
+	@Param({"100", "1000", "5000"})
+	public int players;
+	
+	private AntiXRay plugin;
+	private DeliverPointsTask task;
+	
+	@Setup
+	public void setUp() throws Exception
+	{
+		World world = Standins.world("world");
+		this.plugin = Standins.plugin(world);
+		this.plugin.dataStore = new MemoryDataStore();
+		this.task = new DeliverPointsTask(false);
+		this.plugin.deliverPointsTask = this.task;
+		
+		for(int i = 0; i < this.players; i++)
+		{
+			Player player = Standins.player("Player" + i, world);
+			this.task.addPlayer(player, this.plugin.dataStore.getPlayerData(player));
+		}
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		this.plugin.placedBlocks.close(Collections.<World>emptyList());
+		this.plugin.dataStore.close();
+	}
+	
+	@Benchmark
+	public void tick()
+	{
+		this.task.run();
+	}
+	
+	@Benchmark
+	public void period()
+	{
+		for(int i = 0; i < DeliverPointsTask.PERIOD_TICKS; i++)
+		{
+			this.task.run();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//explosions of various sizes, with various shares of protected blocks caught in them
+//the handler changes the event's block list, so each explosion works on a fresh copy.  copyOnly measures the copy by itself, to subtract
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExplosionBenchmark
+{
+	@Param({"100", "1000", "10000"})
+	public int blockCount;
+	
+	@Param({"0", "1", "10"})
+	public int protectedPercent;
+	
+	private AntiXRay plugin;
+	private EntityEventHandler handler;
+	private Location location;
+	private ArrayList<Block> blocks;
+	
+	@Setup
+	public void setUp() throws Exception
+	{
+		World world = Standins.world("world");
+		this.plugin = Standins.plugin(world);
+		this.plugin.dataStore = new MemoryDataStore();
+		this.handler = new EntityEventHandler();
+		this.location = new Location(world, 0, 12, 0);
+		
+		//protected blocks spread evenly through the list
+		this.blocks = new ArrayList<Block>(this.blockCount);
+		int protectedCount = this.blockCount * this.protectedPercent / 100;
+		for(int i = 0; i < this.blockCount; i++)
+		{
+			boolean isProtected = protectedCount > 0 && i % (this.blockCount / protectedCount) == 0;
+			this.blocks.add(Standins.block(world, isProtected ? Material.DIAMOND_ORE : Material.STONE, i % 16, 12 + i / 256, (i / 16) % 16));
+		}
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		this.plugin.placedBlocks.close(Collections.<World>emptyList());
+		this.plugin.dataStore.close();
+	}
+	
+	@Benchmark
+	public List<Block> explode()
+	{
+		ArrayList<Block> blocks = new ArrayList<Block>(this.blocks);
+		this.handler.onEntityExplode(new EntityExplodeEvent(null, this.location, blocks, 1.0f));
+		return blocks;
+	}
+	
+	@Benchmark
+	public List<Block> copyOnly()
+	{
+		return new ArrayList<Block>(this.blocks);
+	}
+}
@@ -0,0 +1,100 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//players loaded from and written to the flat file store, in players per second
+//writes go straight to the disk, the way the background writer does them, so the results include each file's sync
+//the files are written under plugins/AntiXRayData in the working directory
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlatFileDataStoreBenchmark
+{
+	final static int PLAYERS = 1000;
+	
+	private AntiXRay plugin;
+	private FlatFileDataStore dataStore;
+	private LinkedHashMap<String, PlayerData> batch;
+	
+	@Setup
+	public void setUp() throws Exception
+	{
+		this.plugin = Standins.plugin(Standins.world("world"));
+		this.dataStore = new FlatFileDataStore();
+		this.plugin.dataStore = this.dataStore;
+		
+		this.batch = new LinkedHashMap<String, PlayerData>();
+		for(int i = 0; i < PLAYERS; i++)
+		{
+			PlayerData playerData = new PlayerData();
+			playerData.setPoints(i);
+			this.batch.put("BenchmarkPlayer" + i, playerData);
+		}
+		
+		//so there's something to load
+		this.dataStore.writePlayerDataBatch(this.batch);
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		this.plugin.placedBlocks.close(Collections.<World>emptyList());
+		this.dataStore.close();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(PLAYERS)
+	public void save() throws IOException
+	{
+		this.dataStore.writePlayerDataBatch(this.batch);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(PLAYERS)
+	public void load(Blackhole blackhole) throws IOException
+	{
+		for(String playerName : this.batch.keySet())
+		{
+			blackhole.consume(this.dataStore.loadPlayerDataFromStorage(playerName));
+		}
+	}
+}
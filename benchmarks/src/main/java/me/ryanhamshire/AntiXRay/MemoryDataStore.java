@@ -0,0 +1,62 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//keeps player data in memory, so benchmarks of the event handlers and tasks measure the plugin's own work rather than the disk's
+class MemoryDataStore extends DataStore
+{
+	private ConcurrentHashMap<String, Integer> pointsByName = new ConcurrentHashMap<String, Integer>();
+	
+	MemoryDataStore()
+	{
+		this.initialize();
+	}
+	
+	@Override
+	PlayerData loadPlayerDataFromStorage(String playerName)
+	{
+		Integer points = this.pointsByName.get(playerName);
+		if(points == null) return null;
+		
+		PlayerData playerData = new PlayerData();
+		playerData.setPoints(points);
+		return playerData;
+	}
+	
+	@Override
+	void savePlayerData(String playerName, PlayerData playerData)
+	{
+		this.pointsByName.put(playerName, playerData.getPoints());
+	}
+	
+	@Override
+	void writePlayerDataBatch(Map<String, PlayerData> batch)
+	{
+		for(Map.Entry<String, PlayerData> entry : batch.entrySet())
+		{
+			this.savePlayerData(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	@Override
+	void close() { }
+}
@@ -0,0 +1,190 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginDescriptionFile;
+
+//lightweight stand-ins for the Bukkit types the plugin's hot paths use, so those paths can be benchmarked without a server
+//they're dynamic proxies which answer the handful of methods the plugin calls, and return zero, false or null for everything else
+//a proxied call costs a little more than a real server's would, so compare benchmark results with each other rather than with server timings
+final class Standins
+{
+	//the points rules every benchmark uses: diamond ore is protected, everything else isn't
+	final static int POINTS_PER_HOUR = 800;
+	final static int MAX_POINTS = 1600;
+	final static int DIAMOND_VALUE = 100;
+	
+	//like a server's, every stand-in player gets an entity ID of his own
+	private static AtomicInteger nextEntityID = new AtomicInteger(1);
+	
+	private Standins() { }
+	
+	//sets up the plugin's singleton the way onEnable() would, minus anything which needs a server
+	//the caller still has to supply a data store and, where needed, the points task
+	static AntiXRay plugin(World world)
+	{
+		//the plugin's constructor for use outside a server.  the server stand-in only has to supply a logger
+		AntiXRay plugin = new AntiXRay(server(), new PluginDescriptionFile("AntiXRay", "benchmark", AntiXRay.class.getName()));
+		AntiXRay.instance = plugin;
+		
+		YamlConfiguration settings = new YamlConfiguration();
+		settings.set("AntiXRay.PointsEarnedPerHourPlayed", POINTS_PER_HOUR);
+		settings.set("AntiXRay.MaximumPoints", MAX_POINTS);
+		settings.set("AntiXRay.NewPlayerStartingPoints", 0);
+		settings.set("AntiXRay.ProtectedBlockValues." + Material.DIAMOND_ORE.name(), DIAMOND_VALUE);
+		plugin.config = new PluginConfig(settings, Collections.singletonList(world.getName()));
+		plugin.config.enabledWorlds.worldLoaded(world);
+		
+		return plugin;
+	}
+	
+	static Server server()
+	{
+		final Logger logger = Logger.getLogger("AntiXRay-benchmarks");
+		return proxy(Server.class, new Answers()
+		{
+			@Override
+			Object answer(String method, Object [] args)
+			{
+				if(method.equals("getLogger")) return logger;
+				return UNANSWERED;
+			}
+		});
+	}
+	
+	static World world(final String name)
+	{
+		final UUID worldID = UUID.nameUUIDFromBytes(name.getBytes());
+		return proxy(World.class, new Answers()
+		{
+			@Override
+			Object answer(String method, Object [] args)
+			{
+				if(method.equals("getUID")) return worldID;
+				if(method.equals("getName")) return name;
+				return UNANSWERED;
+			}
+		});
+	}
+	
+	static Block block(final World world, final Material type, final int x, final int y, final int z)
+	{
+		return proxy(Block.class, new Answers()
+		{
+			@Override
+			Object answer(String method, Object [] args)
+			{
+				if(method.equals("getType")) return type;
+				if(method.equals("getWorld")) return world;
+				if(method.equals("getX")) return x;
+				if(method.equals("getY")) return y;
+				if(method.equals("getZ")) return z;
+				return UNANSWERED;
+			}
+		});
+	}
+	
+	//a player who walks four blocks east every time his location is checked, so he always looks active
+	static Player player(final String name, final World world)
+	{
+		final int entityID = nextEntityID.getAndIncrement();
+		final UUID playerID = UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes());
+		return proxy(Player.class, new Answers()
+		{
+			private double x = 0;
+			
+			@Override
+			Object answer(String method, Object [] args)
+			{
+				if(method.equals("getLocation"))
+				{
+					this.x += 4;
+					Location location = (args != null && args.length == 1) ? (Location)args[0] : new Location(world, 0, 0, 0);
+					if(location == null) return null;
+					location.setWorld(world);
+					location.setX(this.x);
+					location.setY(12);
+					location.setZ(0);
+					return location;
+				}
+				
+				if(method.equals("getName")) return name;
+				if(method.equals("getUniqueId")) return playerID;
+				if(method.equals("getEntityId")) return entityID;
+				if(method.equals("getWorld")) return world;
+				if(method.equals("getGameMode")) return GameMode.SURVIVAL;
+				if(method.equals("hasPlayedBefore")) return true;
+				return UNANSWERED;
+			}
+		});
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, Answers answers)
+	{
+		return (T)Proxy.newProxyInstance(Standins.class.getClassLoader(), new Class<?> [] { type }, answers);
+	}
+	
+	//answers a stand-in's method calls.  identity methods behave like an ordinary object's, and unanswered methods return their type's default
+	private static abstract class Answers implements InvocationHandler
+	{
+		final static Object UNANSWERED = new Object();
+		
+		abstract Object answer(String method, Object [] args);
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object [] args)
+		{
+			String name = method.getName();
+			if(name.equals("equals")) return proxy == args[0];
+			if(name.equals("hashCode")) return System.identityHashCode(proxy);
+			if(name.equals("toString")) return "stand-in " + method.getDeclaringClass().getSimpleName();
+			
+			Object answer = this.answer(name, args);
+			if(answer != UNANSWERED) return answer;
+			
+			Class<?> returnType = method.getReturnType();
+			if(returnType == boolean.class) return false;
+			if(returnType == int.class) return 0;
+			if(returnType == long.class) return 0L;
+			if(returnType == double.class) return 0.0;
+			if(returnType == float.class) return 0.0f;
+			if(returnType == short.class) return (short)0;
+			if(returnType == byte.class) return (byte)0;
+			if(returnType == char.class) return (char)0;
+			return null;
+		}
+	}
+}
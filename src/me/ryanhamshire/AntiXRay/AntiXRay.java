@@ -20,23 +20,30 @@ package me.ryanhamshire.AntiXRay;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.AbstractMap.SimpleEntry;
+import java.sql.SQLException;
+import java.text.DateFormat;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
 import java.util.logging.Logger;
 
 import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.GameMode;
 import org.bukkit.Location;
-import org.bukkit.Material;
+import org.bukkit.Server;
 import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.command.*;
-import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public class AntiXRay extends JavaPlugin
@@ -44,25 +51,85 @@ public class AntiXRay extends JavaPlugin
 	//for convenience, a reference to the instance of this plugin
 	public static AntiXRay instance;
 	
+	//how many players "/antixray suspects" lists at most
+	private final static int MAX_SUSPECTS_LISTED = 10;
+	
+	//how many players "/antixray top" lists
+	private final static int MAX_LEADERS_LISTED = 10;
+	
 	//for logging to the console and log file
 	private static Logger log = Logger.getLogger("Minecraft");
 	
+	//writes log entries in the background while the plugin is enabled.  before and after that, entries are logged directly
+	private static volatile PluginLog pluginLog = null;
+	
 	//this handles data storage, like player data
 	public DataStore dataStore;
 	
-	//configuration variables, loaded/saved from a config.yml
-	public ArrayList<World> config_enabledWorlds;								//list of worlds where players are limited in how much quickly they can mine valuable ores
-	public int config_pointsPerHour;											//how quickly players earn "points" which allow them to mine valuables
-	public int config_maxPoints;												//the upper limit on points
-	public int config_startingPoints;											//initial points for players who are new to the server
-	public ArrayList<SimpleEntry<Material, Integer>> config_protectedBlocks;  	//points required to break various block types
-	public boolean config_exemptCreativeModePlayers;							//whether creative mode players should be exempt from the rules
-	public boolean config_notifyOnLimitReached;									//whether to notify online moderators when a player reaches his limit
+	//finds the data of players breaking blocks and moving without a cache lookup
+	RecentPlayerData recentPlayerData;
+	
+	//gives players points for play time
+	DeliverPointsTask deliverPointsTask;
+	
+	//online moderators who receive notifications
+	ModeratorRegistry moderators = new ModeratorRegistry();
+	
+	//protected blocks placed by players, which anyone may break for free
+	PlacedBlockRegistry placedBlocks = new PlacedBlockRegistry();
+	
+	//who has spent the most points this period, and who has the most points
+	Leaderboard leaderboard = new Leaderboard();
+	
+	//counters and timings, for "/antixray stats" and the metrics files
+	final Metrics metrics = new Metrics();
+	
+	//lets other plugins read and change points
+	PointsServiceProvider pointsService;
+	
+	//settings from config.yml.  replaced whole (never changed) by "/antixray reload", so read this once per event and use that copy throughout
+	//the exception is config.enabledWorlds, which changes as worlds load and unload, and is only for the main thread
+	volatile PluginConfig config;
+	
+	//the server creates the plugin through this one
+	public AntiXRay()
+	{
+		super();
+	}
+	
+	//creates the plugin outside a server, so the benchmarks can run its hot paths.  Bukkit refuses this when the plugin was loaded by a server
+	@SuppressWarnings("deprecation")
+	AntiXRay(Server server, PluginDescriptionFile description)
+	{
+		super(null, server, description, null, null);
+	}
 	
 	//adds a server log entry
 	public static void AddLogEntry(String entry)
 	{
-		log.info("AntiXRay: " + entry);
+		PluginLog pluginLog = AntiXRay.pluginLog;
+		if(pluginLog != null)
+		{
+			pluginLog.add(PluginLog.Kind.General, entry, null, null, 0, 0, 0);
+		}
+		else
+		{
+			log.info("AntiXRay: " + entry);
+		}
+	}
+	
+	//adds an alert about a player to the log, at the block he was breaking.  the line is put together by the log's background thread
+	static void AddLogEntry(PluginLog.Kind kind, String playerName, Block block)
+	{
+		PluginLog pluginLog = AntiXRay.pluginLog;
+		if(pluginLog != null)
+		{
+			pluginLog.add(kind, null, playerName, block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+		}
+		else
+		{
+			log.info("AntiXRay: " + PluginLog.format(kind, null, playerName, block.getWorld().getName(), block.getX(), block.getY(), block.getZ()));
+		}
 	}
 	
 	//initializes well...   everything
@@ -72,122 +139,105 @@ public class AntiXRay extends JavaPlugin
 		
 		instance = this;
 		
-		//load the config if it exists
-		FileConfiguration config = YamlConfiguration.loadConfiguration(new File(DataStore.configFilePath));
+		//read the settings
+		this.config = this.loadConfig();
+		PluginConfig config = this.config;
 		
-		//read configuration settings (note defaults)
+		//from here on, log entries are written by a background thread
+		pluginLog = new PluginLog(log, new File(DataStore.dataLayerFolderPath + File.separator + "Logs"), config.logFileKilobytes, config.logFilesKept, config.logEntriesPerMinute);
+		pluginLog.start();
 		
-		//default for worlds list (all worlds)
-		ArrayList<String> defaultWorldNames = new ArrayList<String>();
-		List<World> worlds = this.getServer().getWorlds(); 
+		List<World> worlds = this.getServer().getWorlds();
 		for(int i = 0; i < worlds.size(); i++)
 		{
-			defaultWorldNames.add(worlds.get(i).getName());
+			World world = worlds.get(i);
+			config.enabledWorlds.worldLoaded(world);
+			
+			//pick up placed blocks for chunks which loaded before the plugin did
+			if(config.enabledWorlds.getRules(world) != null)
+			{
+				this.trackLoadedChunks(world);
+			}
 		}
 		
-		//get claims world names from the config file
-		List<String> enabledWorldNames = config.getStringList("AntiXRay.Worlds");
-		if(enabledWorldNames == null || enabledWorldNames.size() == 0)
-		{			
-			enabledWorldNames = defaultWorldNames;
+		//choose a data store
+		if(config.playerDataStorage.equalsIgnoreCase("MappedFile"))
+		{
+			try
+			{
+				this.dataStore = new MappedFileDataStore();
+			}
+			catch(RuntimeException e)
+			{
+				AddLogEntry("Unable to use the MappedFile player data storage.  Falling back to FlatFile.");
+			}
 		}
-		
-		//validate that list
-		this.config_enabledWorlds = new ArrayList<World>();
-		for(int i = 0; i < enabledWorldNames.size(); i++)
+		else if(config.playerDataStorage.equalsIgnoreCase("Database"))
 		{
-			String worldName = enabledWorldNames.get(i);
-			World world = this.getServer().getWorld(worldName);
-			if(world == null)
+			try
 			{
-				AddLogEntry("Error: Configuration: There's no world named \"" + worldName + "\".  Please update your config.yml.");
+				this.dataStore = new DatabaseDataStore(config.databaseUrl, config.databaseUserName, config.databasePassword, config.databasePoolSize);
 			}
-			else
+			catch(SQLException e)
 			{
-				this.config_enabledWorlds.add(world);
+				AddLogEntry("Unable to connect to the database at \"" + config.databaseUrl + "\": " + e.getMessage() + "  Falling back to FlatFile.");
 			}
 		}
+		else if(!config.playerDataStorage.equalsIgnoreCase("FlatFile"))
+		{
+			AddLogEntry("Error: Configuration: Unknown PlayerDataStorage \"" + config.playerDataStorage + "\".  Using FlatFile.");
+		}
 		
-		this.config_startingPoints = config.getInt("AntiXRay.NewPlayerStartingPoints", -400);
-		this.config_pointsPerHour = config.getInt("AntiXRay.PointsEarnedPerHourPlayed", 800);
-		this.config_maxPoints = config.getInt("AntiXRay.MaximumPoints", 1600);
-		
-		this.config_exemptCreativeModePlayers = config.getBoolean("AntiXRay.ExemptCreativeModePlayers", true);
+		if(this.dataStore == null)
+		{
+			this.dataStore = new FlatFileDataStore();
+		}
 		
-		this.config_notifyOnLimitReached = config.getBoolean("AntiXRay.NotifyOnMiningLimitReached", false);
+		this.recentPlayerData = new RecentPlayerData(this.dataStore);
 		
-		//try to load the list of valuable ores from the config file
-		ArrayList<String> protectedBlockNames = new ArrayList<String>();
-		ConfigurationSection protectedBlocksSection = config.getConfigurationSection("AntiXRay.ProtectedBlockValues");
-		if(protectedBlocksSection != null)
-		{
-			Set<String> names = protectedBlocksSection.getKeys(false);
-			Iterator<String> iterator = names.iterator();
-			while(iterator.hasNext())
-			{
-				protectedBlockNames.add(iterator.next());
-			}
-		}		
+		//pick up the leaderboard where it was left
+		this.leaderboard.load();
 		
-		//validate the list
-		this.config_protectedBlocks = new ArrayList<SimpleEntry<Material, Integer>>();
-		for(int i = 0; i < protectedBlockNames.size(); i++)
+		//start the task to regularly give players the points they've earned for play time
+		//it runs every tick, visiting a different slice of the online players each time.  when points are earned on demand, it isn't scheduled at all
+		this.deliverPointsTask = new DeliverPointsTask(config.earnPointsOnDemand);
+		Player [] onlinePlayers = this.getServer().getOnlinePlayers();
+		for(int i = 0; i < onlinePlayers.length; i++)
 		{
-			String blockName = protectedBlockNames.get(i);
-			
-			//validate the material name
-			Material material = Material.getMaterial(blockName);
-			if(material == null)
+			//as on login, players whose data can't be loaded are turned away
+			PlayerData playerData = this.dataStore.getPlayerData(onlinePlayers[i]);
+			if(playerData.unavailable)
 			{
-				AntiXRay.AddLogEntry("Material not found: " + blockName + ".");
+				onlinePlayers[i].kickPlayer(this.dataStore.getMessage(Messages.PlayerDataUnavailable));
 				continue;
-			}			
+			}
 			
-			//read the material value
-			int materialValue = config.getInt("AntiXRay.ProtectedBlockValues." + blockName, 0);
-			this.config_protectedBlocks.add(new SimpleEntry<Material, Integer>(material, materialValue));
+			this.deliverPointsTask.addPlayer(onlinePlayers[i], playerData);
 		}
-		
-		//default for the protected blocks list
-		if(this.config_protectedBlocks.size() == 0)
+		if(!config.earnPointsOnDemand)
 		{
-			this.config_protectedBlocks.add(new SimpleEntry<Material, Integer>(Material.DIAMOND_ORE, 100));
-			this.config_protectedBlocks.add(new SimpleEntry<Material, Integer>(Material.EMERALD_ORE, 50));
+			this.getServer().getScheduler().scheduleSyncRepeatingTask(this, this.deliverPointsTask, 1L, 1L);
 		}
 		
-		//write all those configuration values back to file
-		//(this writes the defaults to the config file when nothing is specified)
-		config.set("AntiXRay.Worlds", enabledWorldNames);
-		config.set("AntiXRay.NewPlayerStartingPoints", this.config_startingPoints);
-		config.set("AntiXRay.PointsEarnedPerHourPlayed", this.config_pointsPerHour);
-		config.set("AntiXRay.MaximumPoints", this.config_maxPoints);
-		
-		config.set("AntiXRay.ExemptCreativeModePlayers", this.config_exemptCreativeModePlayers);
+		//start the task to regularly re-check players' permissions, in case they've changed
+		//(there's no event for that)
+		RefreshPermissionsTask refreshPermissionsTask = new RefreshPermissionsTask();
+		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, refreshPermissionsTask, 20L * 30, 20L * 30);
 		
-		config.set("AntiXRay.NotifyOnMiningLimitReached", this.config_notifyOnLimitReached);
-		
-		for(int i = 0; i < this.config_protectedBlocks.size(); i++)
+		//start the task to regularly save players whose points have changed
+		if(config.checkpointSeconds > 0)
 		{
-			SimpleEntry<Material, Integer> entry = this.config_protectedBlocks.get(i);
-			config.set("AntiXRay.ProtectedBlockValues." + entry.getKey(), entry.getValue().intValue());
+			CheckpointTask checkpointTask = new CheckpointTask();
+			this.getServer().getScheduler().scheduleSyncRepeatingTask(this, checkpointTask, 20L * config.checkpointSeconds, 20L * config.checkpointSeconds);
 		}
 		
-		try
-		{
-			config.save(DataStore.configFilePath);
-		}
-		catch(IOException exception)
+		//start the task to regularly write metrics to disk.  it only reads thread safe counters, so it runs off the main thread
+		if(config.metricsDumpSeconds > 0)
 		{
-			AddLogEntry("Unable to write to the configuration file at \"" + DataStore.configFilePath + "\"");
+			MetricsDumpTask metricsDumpTask = new MetricsDumpTask();
+			this.getServer().getScheduler().scheduleAsyncRepeatingTask(this, metricsDumpTask, 20L * config.metricsDumpSeconds, 20L * config.metricsDumpSeconds);
 		}
 		
-		this.dataStore = new FlatFileDataStore();
-		
-		//start the task to regularly give players the points they've earned for play time
-		//20L ~ 1 second
-		DeliverPointsTask task = new DeliverPointsTask();
-		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, task, 20L * 60 * 5, 20L * 60 * 5);
-		
 		//register for events
 		PluginManager pluginManager = this.getServer().getPluginManager();
 		
@@ -202,34 +252,348 @@ public class AntiXRay extends JavaPlugin
 		//entity events
 		EntityEventHandler entityEventHandler = new EntityEventHandler();
 		pluginManager.registerEvents(entityEventHandler, this);
+		
+		//world events
+		WorldEventHandler worldEventHandler = new WorldEventHandler();
+		pluginManager.registerEvents(worldEventHandler, this);
+		
+		//when points are earned on demand, players' movements are watched instead, to tell which periods they were active in
+		if(config.earnPointsOnDemand)
+		{
+			pluginManager.registerEvents(this.deliverPointsTask, this);
+		}
+		
+		//offer the points service to other plugins.  Bukkit unregisters it when this plugin is disabled
+		this.pointsService = new PointsServiceProvider(this.dataStore);
+		this.getServer().getServicesManager().register(PointsService.class, this.pointsService, this, ServicePriority.Normal);
+	}
+	
+	//reads config.yml into a new settings snapshot, then writes it back so the file lists every setting
+	private PluginConfig loadConfig()
+	{
+		//load the config if it exists
+		FileConfiguration configFile = YamlConfiguration.loadConfiguration(new File(DataStore.configFilePath));
+		
+		//default for worlds list (all worlds)
+		ArrayList<String> defaultWorldNames = new ArrayList<String>();
+		List<World> worlds = this.getServer().getWorlds(); 
+		for(int i = 0; i < worlds.size(); i++)
+		{
+			defaultWorldNames.add(worlds.get(i).getName());
+		}
+		
+		PluginConfig config = new PluginConfig(configFile, defaultWorldNames);
+		
+		//worlds which aren't loaded yet will be picked up when they load
+		for(int i = 0; i < config.enabledWorldNames.size(); i++)
+		{
+			String worldName = config.enabledWorldNames.get(i);
+			if(this.getServer().getWorld(worldName) == null)
+			{
+				AddLogEntry("World \"" + worldName + "\" isn't loaded.  It will be controlled when it loads.  If there's no such world, please update your config.yml.");
+			}
+		}
+		
+		config.save(configFile);
+		try
+		{
+			configFile.save(DataStore.configFilePath);
+		}
+		catch(IOException exception)
+		{
+			AddLogEntry("Unable to write to the configuration file at \"" + DataStore.configFilePath + "\"");
+		}
+		
+		return config;
+	}
+	
+	//rebuilds the settings from config.yml (and the messages from messages.yml) and swaps them in
+	//player data in memory isn't touched.  storage, cache and task settings only take effect on restart
+	void reloadSettings()
+	{
+		PluginConfig oldConfig = this.config;
+		PluginConfig newConfig = this.loadConfig();
+		
+		//worlds newly enabled need their loaded chunks counted, and worlds no longer enabled let go of their placed blocks
+		List<World> worlds = this.getServer().getWorlds();
+		for(int i = 0; i < worlds.size(); i++)
+		{
+			World world = worlds.get(i);
+			newConfig.enabledWorlds.worldLoaded(world);
+			
+			boolean wasEnabled = oldConfig.enabledWorlds.getRules(world) != null;
+			boolean isEnabled = newConfig.enabledWorlds.getRules(world) != null;
+			if(isEnabled && !wasEnabled)
+			{
+				this.trackLoadedChunks(world);
+			}
+			else if(wasEnabled && !isEnabled)
+			{
+				this.placedBlocks.saveWorld(world, true);
+			}
+		}
+		
+		this.config = newConfig;
+		this.dataStore.loadMessages();
+		
+		if(oldConfig.changesStartupSettings(newConfig))
+		{
+			AddLogEntry("Some changed settings (player data storage, cache size, points on demand, save and metrics intervals, or log settings) will take effect when the server restarts.");
+		}
+		
+		//creative mode exemption may have changed
+		Player [] players = this.getServer().getOnlinePlayers();
+		for(int i = 0; i < players.length; i++)
+		{
+			Player player = players[i];
+			AntiXRay.refreshPermissions(player, this.dataStore.getPlayerData(player), player.getGameMode());
+		}
+	}
+	
+	//counts a world's loaded chunks towards its placed block regions, for chunks which loaded while the world wasn't being tracked
+	private void trackLoadedChunks(World world)
+	{
+		Chunk [] chunks = world.getLoadedChunks();
+		for(int i = 0; i < chunks.length; i++)
+		{
+			this.placedBlocks.chunkLoaded(chunks[i]);
+		}
 	}
 	
 	//on disable, close any open files and/or database connections
 	public void onDisable()
 	{
+		//let point changes other plugins have already asked for finish
+		if(this.pointsService != null) this.pointsService.close();
+		
 		//ensure all online players get their data saved
 		Player [] players = this.getServer().getOnlinePlayers();
 		for(int i = 0; i < players.length; i++)
 		{
 			Player player = players[i];
-			String playerName = player.getName();
-			this.dataStore.savePlayerData(playerName, this.dataStore.getPlayerData(player));
+			PlayerData playerData = this.dataStore.getPlayerData(player);
+			this.deliverPointsTask.settlePoints(player, playerData);
+			playerData.dirty = true;
 		}
 		
+		//saved together with offline players whose points were changed through the points service
+		this.dataStore.checkpoint();
+		
 		this.dataStore.close();
+		
+		//save placed blocks
+		this.placedBlocks.close(this.getServer().getWorlds());
+		
+		this.leaderboard.close();
+		
+		//write out whatever's left in the log
+		PluginLog closingLog = pluginLog;
+		pluginLog = null;
+		if(closingLog != null) closingLog.close();
 	}
 	
 	//handles slash commands
 	public boolean onCommand(CommandSender sender, Command cmd, String commandLabel, String[] args)
 	{
-		return true;
+		Player player = null;
+		if(sender instanceof Player) player = (Player)sender;
+		
+		if(!cmd.getName().equalsIgnoreCase("antixray") || args.length == 0) return false;
+		
+		String subcommand = args[0];
+		
+		//antixray notifications
+		if(subcommand.equalsIgnoreCase("notifications"))
+		{
+			//only moderators in game
+			if(player == null || !player.hasPermission("antixray.monitorxrayers"))
+			{
+				AntiXRay.sendMessage(player, TextMode.Err, Messages.NoPermission);
+				return true;
+			}
+			
+			if(this.moderators.toggle(player))
+			{
+				AntiXRay.sendMessage(player, TextMode.Success, Messages.NotificationsOn);
+			}
+			else
+			{
+				AntiXRay.sendMessage(player, TextMode.Success, Messages.NotificationsOff);
+			}
+			
+			return true;
+		}
+		
+		//antixray stats
+		else if(subcommand.equalsIgnoreCase("stats"))
+		{
+			//only moderators or the console
+			if(player != null && !player.hasPermission("antixray.monitorxrayers"))
+			{
+				AntiXRay.sendMessage(player, TextMode.Err, Messages.NoPermission);
+				return true;
+			}
+			
+			for(String line : this.metrics.toText(this.dataStore.playerDataCache))
+			{
+				AntiXRay.sendMessage(player, TextMode.Info, line);
+			}
+			
+			return true;
+		}
+		
+		//antixray reload
+		else if(subcommand.equalsIgnoreCase("reload"))
+		{
+			//only administrators or the console
+			if(player != null && !player.hasPermission("antixray.reload"))
+			{
+				AntiXRay.sendMessage(player, TextMode.Err, Messages.NoPermission);
+				return true;
+			}
+			
+			this.reloadSettings();
+			AntiXRay.sendMessage(player, TextMode.Success, Messages.SettingsReloaded);
+			return true;
+		}
+		
+		//antixray data export <file> | reset <points> | clamp [maximum] | prune <days>
+		else if(subcommand.equalsIgnoreCase("data"))
+		{
+			//only administrators or the console
+			if(player != null && !player.hasPermission("antixray.maintenance"))
+			{
+				AntiXRay.sendMessage(player, TextMode.Err, Messages.NoPermission);
+				return true;
+			}
+			
+			return PlayerDataMaintenanceTask.start(player, args);
+		}
+		
+		//antixray suspects
+		else if(subcommand.equalsIgnoreCase("suspects"))
+		{
+			//only moderators or the console
+			if(player != null && !player.hasPermission("antixray.monitorxrayers"))
+			{
+				AntiXRay.sendMessage(player, TextMode.Err, Messages.NoPermission);
+				return true;
+			}
+			
+			//score everyone online who has broken a valuable block recently
+			final long now = System.currentTimeMillis();
+			final HashMap<String, Integer> scores = new HashMap<String, Integer>();
+			ArrayList<String> suspects = new ArrayList<String>();
+			for(Player onlinePlayer : this.getServer().getOnlinePlayers())
+			{
+				MiningRatioWindow window = this.dataStore.getPlayerData(onlinePlayer).getMiningRatio();
+				if(window.getProtectedTotal(now) == 0) continue;
+				
+				scores.put(onlinePlayer.getName(), window.getScore(now));
+				suspects.add(onlinePlayer.getName());
+			}
+			
+			if(suspects.size() == 0)
+			{
+				AntiXRay.sendMessage(player, TextMode.Info, Messages.NoSuspects);
+				return true;
+			}
+			
+			//most suspicious first
+			Collections.sort(suspects, new Comparator<String>()
+			{
+				@Override
+				public int compare(String a, String b)
+				{
+					return scores.get(b).compareTo(scores.get(a));
+				}
+			});
+			
+			AntiXRay.sendMessage(player, TextMode.Info, Messages.SuspectsHeader);
+			for(int i = 0; i < suspects.size() && i < MAX_SUSPECTS_LISTED; i++)
+			{
+				String name = suspects.get(i);
+				int score = scores.get(name);
+				AntiXRay.sendMessage(player, TextMode.Instr, Messages.SuspectLine, name, String.valueOf(score / 10));
+			}
+			
+			return true;
+		}
+		
+		//antixray top [spent|points]
+		else if(subcommand.equalsIgnoreCase("top"))
+		{
+			//only moderators or the console
+			if(player != null && !player.hasPermission("antixray.monitorxrayers"))
+			{
+				AntiXRay.sendMessage(player, TextMode.Err, Messages.NoPermission);
+				return true;
+			}
+			
+			boolean byPoints = args.length > 1 && args[1].equalsIgnoreCase("points");
+			if(args.length > 1 && !byPoints && !args[1].equalsIgnoreCase("spent")) return false;
+			
+			long now = System.currentTimeMillis();
+			List<Leaderboard.Entry> leaders;
+			if(byPoints)
+			{
+				leaders = this.leaderboard.getTopPoints(MAX_LEADERS_LISTED);
+				if(leaders.isEmpty())
+				{
+					AntiXRay.sendMessage(player, TextMode.Info, Messages.NoPointsLeaders);
+					return true;
+				}
+				
+				AntiXRay.sendMessage(player, TextMode.Info, Messages.PointsLeadersHeader);
+			}
+			else
+			{
+				leaders = this.leaderboard.getTopSpent(MAX_LEADERS_LISTED, now);
+				String periodStart = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT).format(new Date(this.leaderboard.getPeriodStart(now)));
+				if(leaders.isEmpty())
+				{
+					AntiXRay.sendMessage(player, TextMode.Info, Messages.NoSpentLeaders, periodStart);
+					return true;
+				}
+				
+				AntiXRay.sendMessage(player, TextMode.Info, Messages.SpentLeadersHeader, periodStart);
+			}
+			
+			for(int i = 0; i < leaders.size(); i++)
+			{
+				Leaderboard.Entry leader = leaders.get(i);
+				AntiXRay.sendMessage(player, TextMode.Instr, Messages.LeaderLine, String.valueOf(i + 1), leader.playerName, String.valueOf(leader.value));
+			}
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	//works out the permission-based status cached for a player: whether he's exempt from the rules, given the game mode he's in (or about to be in),
+	//and whether he receives moderator notifications
+	static void refreshPermissions(Player player, PlayerData playerData, GameMode gameMode)
+	{
+		//players with the bypass permission, or in creative mode
+		playerData.exempt = player.hasPermission("antixray.bypass") || (AntiXRay.instance.config.exemptCreativeModePlayers && gameMode == GameMode.CREATIVE);
+		
+		AntiXRay.instance.moderators.refresh(player);
 	}
 	
 	//sends a color-coded message to a player
 	static void sendMessage(Player player, ChatColor color, Messages messageID, String... args)
 	{
-		String message = AntiXRay.instance.dataStore.getMessage(messageID, args);
-		sendMessage(player, color, message);
+		//the color code is part of the compiled message, so there's no concatenating here
+		String message = AntiXRay.instance.dataStore.getMessage(messageID, color, args);
+		if(player == null)
+		{
+			AntiXRay.AddLogEntry(message);
+		}
+		else
+		{
+			player.sendMessage(message);
+		}
 	}
 	
 	//sends a color-coded message to a player
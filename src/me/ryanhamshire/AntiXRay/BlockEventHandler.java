@@ -18,10 +18,6 @@
 
 package me.ryanhamshire.AntiXRay;
 
-import java.util.AbstractMap.SimpleEntry;
-
-import org.bukkit.GameMode;
-import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -46,100 +42,156 @@ public class BlockEventHandler implements Listener
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.LOW)
 	public void onBlockBreak(BlockBreakEvent breakEvent)
 	{
+		//timed, to show what this plugin costs the server
+		long start = System.nanoTime();
+		this.handleBlockBreak(breakEvent);
+		AntiXRay.instance.metrics.blockBreakLatency.record(System.nanoTime() - start);
+	}
+	
+	private void handleBlockBreak(BlockBreakEvent breakEvent)
+	{
+		Block block = breakEvent.getBlock();
+		
+		//one read of the settings for the whole event, in case they're reloaded
+		PluginConfig config = AntiXRay.instance.config;
+		
+		//if the block's world isn't in the list of controlled worlds, ignore the event
+		WorldRules rules = config.enabledWorlds.getRules(block.getWorld());
+		if(rules == null) return;
+		
+		Metrics metrics = AntiXRay.instance.metrics;
+		metrics.blockBreaks.incrementAndGet();
+		
+		//look up what the block is worth where it is, in the world's tables of protected blocks
+		int value = rules.protectedBlockValues.getValue(block);
+		
+		//whether a player placed it.  it's only forgotten once the break goes through (see onBlockBroken), since a plugin after this one may still cancel it
+		boolean placedByPlayer = value != ProtectedBlockValues.NOT_PROTECTED && AntiXRay.instance.placedBlocks.contains(block.getWorld(), block.getX(), block.getY(), block.getZ());
+		
 		Player player = breakEvent.getPlayer();
+		PlayerData playerData = AntiXRay.instance.recentPlayerData.get(player);
 		
-		//ignore players with the bypass permission
-		if(player.hasPermission("antixray.bypass")) return;
+		//ignore players with the bypass permission or in creative mode
+		if(playerData.exempt) return;
 		
-		//ignore players in creative mode
-		if(AntiXRay.instance.config_exemptCreativeModePlayers && player.getGameMode() == GameMode.CREATIVE) return;
+		//most broken blocks aren't protected.  those only count towards his mining ratio
+		long now = System.currentTimeMillis();
+		if(value <= 0)
+		{
+			playerData.getMiningRatio().record(false, now);
+			if(value == ProtectedBlockValues.NOT_PROTECTED) return;
+		}
 		
-		Block block = breakEvent.getBlock();
+		metrics.protectedBlockBreaks.incrementAndGet();
 		
-		//if the block's world isn't in the list of controlled worlds, ignore the event
-		if(!AntiXRay.instance.config_enabledWorlds.contains(block.getWorld())) return;
+		//allows anyone to break a block a player placed (he must have been charged points already to collect it in the first place) without cost
+		if(placedByPlayer) return;
 		
-		//allows a player to break a block he just placed (he must have been charged points already to collect it in the first place) without cost
-		PlayerData playerData = this.dataStore.getPlayerData(player);
-		if(playerData.lastPlacedBlockLocation != null && block.getLocation().equals(playerData.lastPlacedBlockLocation))
+		//a valuable block counts against his mining ratio, whether or not he's allowed to break it
+		if(value > 0)
 		{
-			playerData.lastPlacedBlockLocation = null;
-			return;
+			playerData.getMiningRatio().record(true, now);
+			
+			//if configured to do so, notify online moderators when his mining looks suspicious
+			if(config.notifyOnSuspicionPercent > 0 && !playerData.reachedSuspicionThisSession && playerData.getMiningRatio().getScore(now) >= config.notifyOnSuspicionPercent * 10)
+			{
+				//avoid doing this twice in one play session for this player
+				playerData.reachedSuspicionThisSession = true;
+				
+				AntiXRay.AddLogEntry(PluginLog.Kind.SuspiciousMining, player.getName(), block);
+				AntiXRay.instance.moderators.notify(Messages.SuspicionNotification, player.getName(), String.valueOf(playerData.getMiningRatio().getScore(now) / 10));
+			}
 		}
 		
-		//look for the block's type in the list of protected blocks
-		for(int i = 0; i < AntiXRay.instance.config_protectedBlocks.size(); i++)
-		{			
-			//if it's in the list, consider whether this player should be permitted to break the block
-			SimpleEntry<Material, Integer> entry = AntiXRay.instance.config_protectedBlocks.get(i);
-			if(entry.getKey() == block.getType())
+		//when points are earned on demand, this is when he gets them
+		AntiXRay.instance.deliverPointsTask.settlePoints(player, playerData);
+		
+		//if he doesn't have enough points.  otherwise, the value of the block comes off his points in the same step
+		if(value > 0 && !playerData.tryCharge(value))
+		{
+			//inform him, unless he was told only moments ago
+			if(now - playerData.lastCantBreakYetMessageTime >= config.cantBreakYetMessageSeconds * 1000L)
 			{
-				//if he doesn't have enough points
-				if(entry.getValue() > 0 && playerData.points < entry.getValue())
-				{
-					//estimate how long it will be before he can break this block
-					int minutesUntilBreak = (int)((entry.getValue() - playerData.points) / (float)(AntiXRay.instance.config_pointsPerHour) * 60);
-					if(minutesUntilBreak == 0) minutesUntilBreak = 1;
-					
-					//inform him
-					AntiXRay.sendMessage(player, TextMode.Instr, Messages.CantBreakYet, String.valueOf(minutesUntilBreak));
-					
-					//cancel the breakage
-					breakEvent.setCancelled(true);
-					
-					//if configured to do so, make an entry in the log and notify any online moderators
-					if(AntiXRay.instance.config_notifyOnLimitReached && !playerData.reachedLimitThisSession)
-					{
-						//avoid doing this twice in one play session for this player
-						playerData.reachedLimitThisSession = true;
-						
-						//make log entry
-						AntiXRay.AddLogEntry(player.getName() + " reached the mining speed limit at " + AntiXRay.getfriendlyLocationString(player.getLocation()));
-						
-						//notify online moderators
-						Player [] players = AntiXRay.instance.getServer().getOnlinePlayers();
-						for(int j = 0; j < players.length; j++)
-						{
-							Player moderator = players[j];
-							if(moderator.hasPermission("antixray.monitorxrayers"))
-							{
-								AntiXRay.sendMessage(moderator, TextMode.Instr, Messages.AdminNotification, player.getName());
-							}
-						}
-					}
-				}
+				playerData.lastCantBreakYetMessageTime = now;
 				
-				//otherwise, subtract the value of the block from his points
-				else
-				{
-					playerData.points -= entry.getValue();					
-				}
+				//estimate how long it will be before he can break this block
+				int minutesUntilBreak = (int)((value - playerData.getPoints()) / (float)(rules.pointsPerHour) * 60);
+				if(minutesUntilBreak == 0) minutesUntilBreak = 1;
 				
-				//once a match is found, no need to look farther
-				return;
+				AntiXRay.sendMessage(player, TextMode.Instr, Messages.CantBreakYet, String.valueOf(minutesUntilBreak));
 			}
+			
+			//cancel the breakage
+			breakEvent.setCancelled(true);
+			metrics.blockBreaksDenied.incrementAndGet();
+			
+			//if configured to do so, make an entry in the log and notify any online moderators
+			if(config.notifyOnLimitReached && !playerData.reachedLimitThisSession)
+			{
+				//avoid doing this twice in one play session for this player
+				playerData.reachedLimitThisSession = true;
+				
+				//make log entry
+				AntiXRay.AddLogEntry(PluginLog.Kind.MiningLimitReached, player.getName(), block);
+				
+				//notify online moderators
+				AntiXRay.instance.moderators.notify(Messages.AdminNotification, player.getName());
+			}
+		}
+		
+		//otherwise, the block has been paid for (or, with a negative value, pays him)
+		else
+		{
+			if(value > 0)
+			{
+				metrics.pointsCharged.addAndGet(value);
+				AntiXRay.instance.leaderboard.pointsCharged(player.getName(), value, playerData.getPoints(), now);
+			}
+			else
+			{
+				AntiXRay.instance.leaderboard.pointsChanged(player.getName(), playerData.addPoints(-value, Integer.MAX_VALUE));
+			}
+			
+			playerData.dirty = true;
 		}
 	}
 	
-	//when a player places a block...
+	//when a block break has gone through...
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
-	public void onBlockPlace(BlockPlaceEvent placeEvent)
+	public void onBlockBroken(BlockBreakEvent breakEvent)
 	{
-		Player player = placeEvent.getPlayer();
-		
-		//ignore players with the bypass permission
-		if(player.hasPermission("antixray.bypass")) return;
+		Block block = breakEvent.getBlock();
 		
-		//ignore players in creative mode
-		if(AntiXRay.instance.config_exemptCreativeModePlayers && player.getGameMode() == GameMode.CREATIVE) return;
+		//if the block's world isn't in the list of controlled worlds, ignore the event
+		WorldRules rules = AntiXRay.instance.config.enabledWorlds.getRules(block.getWorld());
+		if(rules == null) return;
 		
+		//a block a player placed is forgotten once it's broken, even by someone exempt, so whatever ends up at that position next isn't free
+		if(rules.protectedBlockValues.getValue(block) == ProtectedBlockValues.NOT_PROTECTED) return;
+		AntiXRay.instance.placedBlocks.remove(block.getWorld(), block.getX(), block.getY(), block.getZ());
+	}
+	
+	//when a player places a block...
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPlace(BlockPlaceEvent placeEvent)
+	{
 		Block block = placeEvent.getBlockPlaced();
 		
 		//if the block's world isn't in the list of controlled worlds, ignore the event
-		if(!AntiXRay.instance.config_enabledWorlds.contains(block.getWorld())) return;
+		WorldRules rules = AntiXRay.instance.config.enabledWorlds.getRules(block.getWorld());
+		if(rules == null) return;
+		
+		//only blocks which cost points to break need remembering
+		if(rules.protectedBlockValues.getValue(block) <= 0) return;
 		
-		//allows a player to break a block he just placed (he must have been charged points already to collect it in the first place) without cost
+		Player player = placeEvent.getPlayer();
 		PlayerData playerData = this.dataStore.getPlayerData(player);
-		playerData.lastPlacedBlockLocation = block.getLocation();
+		
+		//ignore players with the bypass permission or in creative mode
+		if(playerData.exempt) return;
+		
+		//allows anyone to break a block a player placed (he must have been charged points already to collect it in the first place) without cost
+		AntiXRay.instance.placedBlocks.add(block.getWorld(), block.getX(), block.getY(), block.getZ());
+		AntiXRay.instance.metrics.blockPlacesTracked.incrementAndGet();
 	}
 }
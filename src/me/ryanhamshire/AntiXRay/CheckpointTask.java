@@ -0,0 +1,33 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+//FEATURE: limit how many point changes a server crash can lose
+
+//runs regularly in the main thread, saves every player whose points have changed since his data was last saved, and the leaderboard
+//the data stores do the actual writing off the main thread
+class CheckpointTask implements Runnable
+{
+	@Override
+	public void run()
+	{
+		AntiXRay.instance.dataStore.checkpoint();
+		AntiXRay.instance.leaderboard.save();
+	}
+}
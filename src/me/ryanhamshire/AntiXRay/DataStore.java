@@ -20,7 +20,9 @@ package me.ryanhamshire.AntiXRay;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.bukkit.ChatColor;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
@@ -28,17 +30,30 @@ import org.bukkit.entity.Player;
 //abstract class for data storage.  implementing classes fill the implementation gaps for flat file storage and database storage, respectively
 abstract class DataStore 
 {
-	//in-memory cache for player data
-	private HashMap<String, PlayerData> playerNameToPlayerDataMap = new HashMap<String, PlayerData>();
+	//in-memory cache for player data.  thread safe, because player data is prefetched from the async pre-login thread
+	PlayerDataCache playerDataCache = new PlayerDataCache(this, AntiXRay.instance.config.offlinePlayerCacheSize);
 	
-	//in-memory cache for messages
-	private String [] messages;
+	//held while a player's data is loaded into the cache, and while "/antixray data" changes his file, so neither happens halfway through the other
+	//one lock per group of names, picked by hash, so loads of different players hardly ever wait for each other
+	private final static int LOAD_LOCKS = 64;
+	private final ReentrantLock [] loadLocks = new ReentrantLock[LOAD_LOCKS];
+	
+	//in-memory cache for messages, compiled for quick filling in
+	private MessageTemplate [] messages;
 	
 	//path information, for where stuff stored on disk is well...  stored
 	final static String dataLayerFolderPath = "plugins" + File.separator + "AntiXRayData";
 	final static String configFilePath = dataLayerFolderPath + File.separator + "config.yml";
 	final static String messagesFilePath = dataLayerFolderPath + File.separator + "messages.yml";
 	
+	DataStore()
+	{
+		for(int i = 0; i < LOAD_LOCKS; i++)
+		{
+			this.loadLocks[i] = new ReentrantLock();
+		}
+	}
+	
 	//initialization varies depending on flat file or database storage
 	void initialize()
 	{
@@ -46,32 +61,139 @@ abstract class DataStore
 		this.loadMessages();
 	}
 	
+	//the lock held while a player's data is loaded into memory
+	ReentrantLock getLoadLock(String playerName)
+	{
+		return this.loadLocks[playerName.hashCode() & (LOAD_LOCKS - 1)];
+	}
+	
 	//removes cached player data from memory
-	void clearCachedPlayerData(String playerName)
+	void clearCachedPlayerData(UUID playerID)
 	{
-		this.playerNameToPlayerDataMap.remove(playerName);
+		//if it was changed after its last save, that change would be lost with it
+		PlayerData unsavedData = this.playerDataCache.remove(playerID);
+		if(unsavedData != null)
+		{
+			unsavedData.dirty = false;
+			this.savePlayerData(unsavedData.playerName, unsavedData);
+		}
 	}
 	
 	//retrieves player data from memory or file, as necessary
 	//if the player has never been on the server before, this will return a fresh player data with default values
+	//if his data can't be loaded (say, the database is down), this returns a stand-in marked unavailable, with no points, which is never cached or saved
 	public PlayerData getPlayerData(Player player)
 	{
+		UUID playerID = player.getUniqueId();
 		String playerName = player.getName();
 		
 		//first, look in memory
-		PlayerData playerData = this.playerNameToPlayerDataMap.get(playerName);
+		PlayerData playerData = this.playerDataCache.getOnline(playerID);
+		if(playerData != null) return playerData;
 		
-		//if not there, look on disk
-		if(playerData == null)
+		//then among the offline players (this is where prefetched data waits for its player to join)
+		playerData = this.playerDataCache.pinOffline(playerID, playerName);
+		if(playerData != null)
+		{
+			AntiXRay.refreshPermissions(player, playerData, player.getGameMode());
+			return playerData;
+		}
+		
+		//if not there (the prefetch didn't happen or hasn't finished yet), look on disk
+		ReentrantLock loadLock = this.getLoadLock(playerName);
+		loadLock.lock();
+		try
 		{
-			playerData = this.loadPlayerDataFromStorage(player);
+			try
+			{
+				playerData = this.loadPlayerData(playerName);
+			}
+			catch(IOException e)
+			{
+				PlayerData standIn = new PlayerData();
+				standIn.setPoints(0);
+				standIn.unavailable = true;
+				AntiXRay.refreshPermissions(player, standIn, player.getGameMode());
+				return standIn;
+			}
 			
-			//shove that new player data into the hash map cache
-			this.playerNameToPlayerDataMap.put(playerName, playerData);
+			//if not on disk either, he's new.  create a record with defaults
+			if(playerData == null)
+			{
+				playerData = this.getDefaultPlayerData(player);
+				this.savePlayerData(playerName, playerData);
+			}
+			
+			//shove that new player data into the cache, unless a prefetch beat us to it
+			playerData = this.playerDataCache.putOnline(playerID, playerName, playerData);
+		}
+		finally
+		{
+			loadLock.unlock();
 		}
 		
-		//try the hash map again.  if it's STILL not there, we have a bug to fix
-		return this.playerNameToPlayerDataMap.get(playerName);
+		AntiXRay.refreshPermissions(player, playerData, player.getGameMode());
+		return playerData;
+	}
+	
+	//retrieves a player's data by name, whether he's online or not, or null if he's never been on the server.  throws if his data can't be loaded
+	//offline players' data is cached in a bounded list, so looking up lots of players won't fill up memory.  safe to call from any thread
+	public PlayerData getOfflinePlayerData(String playerName) throws IOException
+	{
+		PlayerData playerData = this.playerDataCache.getByName(playerName);
+		if(playerData != null) return playerData;
+		
+		ReentrantLock loadLock = this.getLoadLock(playerName);
+		loadLock.lock();
+		try
+		{
+			playerData = this.loadPlayerData(playerName);
+			if(playerData == null) return null;
+			
+			return this.playerDataCache.putOfflineByName(playerName, playerData);
+		}
+		finally
+		{
+			loadLock.unlock();
+		}
+	}
+	
+	//loads a player's data into memory ahead of his login.  called from the async pre-login thread, so this must not use the Bukkit API
+	//throws if his data can't be loaded, so he can be turned away rather than play with the wrong points
+	void prefetchPlayerData(UUID playerID, String playerName) throws IOException
+	{
+		//already in memory (for example, he's logging in again from another location)
+		if(this.playerDataCache.contains(playerID)) return;
+		
+		ReentrantLock loadLock = this.getLoadLock(playerName);
+		loadLock.lock();
+		try
+		{
+			//new players get their defaults on join, because that depends on information only available on the main thread
+			PlayerData playerData = this.loadPlayerData(playerName);
+			if(playerData == null) return;
+			
+			//until he joins, this is kept with the offline players, so abandoned logins don't pile up
+			this.playerDataCache.putOffline(playerID, playerName, playerData);
+		}
+		finally
+		{
+			loadLock.unlock();
+		}
+	}
+	
+	//loads a player's data from storage, keeping count of loads and how long they take
+	private PlayerData loadPlayerData(String playerName) throws IOException
+	{
+		Metrics metrics = AntiXRay.instance.metrics;
+		long start = System.nanoTime();
+		PlayerData playerData = this.loadPlayerDataFromStorage(playerName);
+		metrics.loadLatency.record(System.nanoTime() - start);
+		
+		metrics.playersLoaded.incrementAndGet();
+		if(playerData == null) metrics.playersNotFound.incrementAndGet();
+		
+		return playerData;
 	}
 	
 	PlayerData getDefaultPlayerData(Player player)
@@ -80,36 +202,90 @@ abstract class DataStore
 		
 		//default points = max when the player has played on the server before
 		//otherwise, use starting points from config file
+		PluginConfig config = AntiXRay.instance.config;
 		if(!player.hasPlayedBefore())
 		{
-			playerData.points = AntiXRay.instance.config_startingPoints;
+			playerData.setPoints(config.startingPoints);
 		}
 		else
 		{
-			playerData.points = AntiXRay.instance.config_maxPoints;
+			playerData.setPoints(config.maxPoints);
 		}
 		
 		return playerData;
 	}
 	
+	//saves every cached player whose data has changed since it was last saved.  the actual writing happens off the main thread, in one batch
+	void checkpoint()
+	{
+		LinkedHashMap<String, PlayerData> batch = new LinkedHashMap<String, PlayerData>();
+		for(Map.Entry<String, PlayerData> entry : this.playerDataCache.getAll().entrySet())
+		{
+			PlayerData playerData = entry.getValue();
+			if(!playerData.dirty) continue;
+			
+			playerData.dirty = false;
+			batch.put(entry.getKey(), playerData.snapshot());
+		}
+		
+		if(!batch.isEmpty())
+		{
+			this.savePlayerDataBatch(batch);
+		}
+	}
+	
+	//returns null when there's no stored data for the player, and throws when storage couldn't be read (never make up defaults, they'd be saved over his real data)
+	//may be called from the async pre-login thread, so implementations must not use the Bukkit API
 	//implementation varies depending on flat file or database storage
-	abstract PlayerData loadPlayerDataFromStorage(Player player);
+	abstract PlayerData loadPlayerDataFromStorage(String playerName) throws IOException;
 	
 	//saves changes to player data.  MUST be called after you're done making changes, otherwise a reload will lose them
 	//implementation varies based on flat file or database storage
 	abstract void savePlayerData(String playerName, PlayerData playerData);
 	
-	//loads user-facing messages from the messages.yml configuration file into memory
-	private void loadMessages() 
+	//saves several players' data at once.  the default just saves them one at a time, stores with a background writer queue them all together
+	void savePlayerDataBatch(Map<String, PlayerData> batch)
+	{
+		for(Map.Entry<String, PlayerData> entry : batch.entrySet())
+		{
+			this.savePlayerData(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	//writes a batch of queued player data snapshots to storage.  called from the background writer thread, so implementations must not use the Bukkit API
+	//throws if any of the batch couldn't be written, so the writer can try again.  writing the same snapshot twice is harmless, so implementations needn't say which ones failed
+	abstract void writePlayerDataBatch(Map<String, PlayerData> batch) throws Exception;
+	
+	//loads user-facing messages from the messages.yml configuration file into memory.  called again by "/antixray reload"
+	void loadMessages() 
 	{
 		Messages [] messageIDs = Messages.values();
-		this.messages = new String[Messages.values().length];
+		MessageTemplate [] messages = new MessageTemplate[Messages.values().length];
 		
 		HashMap<String, CustomizableMessage> defaults = new HashMap<String, CustomizableMessage>();
 		
 		//initialize defaults
 		this.addDefault(defaults, Messages.CantBreakYet, "Wow, you're good at mining!  You have to wait about {0} minutes to break this block.  If you wait longer, you can mine even more of this.  Consider taking a break from mining to do something else, like building or exploring.  This mining speed limit keeps our ores safe from cheaters.  :)", "0: minutes until the block can be broken");
 		this.addDefault(defaults, Messages.AdminNotification, "{0} reached the mining speed limit.", "0: player name");
+		this.addDefault(defaults, Messages.NotificationsOn, "You'll now be notified when players reach the mining speed limit.", null);
+		this.addDefault(defaults, Messages.NotificationsOff, "You'll no longer be notified when players reach the mining speed limit, until the server restarts.", null);
+		this.addDefault(defaults, Messages.NoPermission, "You don't have permission to do that.", null);
+		this.addDefault(defaults, Messages.SuspicionNotification, "{0} is mining suspiciously many valuable blocks ({1}% recently).", "0: player name, 1: percentage of recently broken blocks which were valuable");
+		this.addDefault(defaults, Messages.SuspectsHeader, "Online players by share of valuable blocks broken in the last ten minutes:", null);
+		this.addDefault(defaults, Messages.SuspectLine, "{0}: {1}%", "0: player name, 1: percentage of recently broken blocks which were valuable");
+		this.addDefault(defaults, Messages.NoSuspects, "No online players have broken any valuable blocks in the last ten minutes.", null);
+		this.addDefault(defaults, Messages.SettingsReloaded, "Reloaded config.yml and messages.yml.", null);
+		this.addDefault(defaults, Messages.MaintenanceStarted, "Player data {0} started in the background.", "0: operation (export, reset, clamp or prune)");
+		this.addDefault(defaults, Messages.MaintenanceDone, "Player data {0} finished: {1}", "0: operation, 1: summary of players scanned, changed, removed and failed");
+		this.addDefault(defaults, Messages.MaintenanceFailed, "Player data {0} failed: {1}", "0: operation, 1: error");
+		this.addDefault(defaults, Messages.MaintenanceBusy, "Player data maintenance is already running.  Please wait for it to finish.", null);
+		this.addDefault(defaults, Messages.MaintenanceNeedsFlatFile, "Player data maintenance only works with FlatFile player data storage.", null);
+		this.addDefault(defaults, Messages.SpentLeadersHeader, "Most points spent on valuable blocks since {0}:", "0: when the current leaderboard period started");
+		this.addDefault(defaults, Messages.NoSpentLeaders, "Nobody has spent any points on valuable blocks since {0}.", "0: when the current leaderboard period started");
+		this.addDefault(defaults, Messages.PointsLeadersHeader, "Players with the most points:", null);
+		this.addDefault(defaults, Messages.NoPointsLeaders, "No players' points have changed since the leaderboard was started.", null);
+		this.addDefault(defaults, Messages.LeaderLine, "{0}. {1}: {2}", "0: rank, 1: player name, 2: points");
+		this.addDefault(defaults, Messages.PlayerDataUnavailable, "Your AntiXRay data couldn't be loaded.  Please try again in a moment.", null);
 		
 		//load the config file
 		FileConfiguration config = YamlConfiguration.loadConfiguration(new File(messagesFilePath));
@@ -129,8 +305,9 @@ abstract class DataStore
 			}
 			
 			//read the message from the file, use default if necessary
-			this.messages[messageID.ordinal()] = config.getString("Messages." + messageID.name() + ".Text", messageData.text);
-			config.set("Messages." + messageID.name() + ".Text", this.messages[messageID.ordinal()]);
+			String text = config.getString("Messages." + messageID.name() + ".Text", messageData.text);
+			config.set("Messages." + messageID.name() + ".Text", text);
+			messages[messageID.ordinal()] = new MessageTemplate(text);
 			
 			if(messageData.notes != null)
 			{
@@ -149,6 +326,9 @@ abstract class DataStore
 			AntiXRay.AddLogEntry("Unable to write to the configuration file at \"" + DataStore.messagesFilePath + "\"");
 		}
 		
+		//swapped in whole, so a reload never leaves a message missing
+		this.messages = messages;
+		
 		defaults.clear();
 		System.gc();				
 	}
@@ -164,16 +344,13 @@ abstract class DataStore
 	//gets a message from memory
 	public String getMessage(Messages messageID, String... args)
 	{
-		String message = messages[messageID.ordinal()];
-		
-		for(int i = 0; i < args.length; i++)
-		{
-			String param = args[i];
-			message = message.replace("{" + i + "}", param);
-		}
-		
-		return message;
-		
+		return this.messages[messageID.ordinal()].format(null, args);
+	}
+	
+	//gets a message from memory, with a color code in front
+	String getMessage(Messages messageID, ChatColor color, String... args)
+	{
+		return this.messages[messageID.ordinal()].format(color, args);
 	}
 	
 	//closes any open connections.  implementation varies depending on flat file or database storage.
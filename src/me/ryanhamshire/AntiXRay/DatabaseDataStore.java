@@ -0,0 +1,239 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+//stores player data in a SQL database through JDBC.  works with an embedded database (SQLite ships with CraftBukkit, H2 works too) or a MySQL server
+class DatabaseDataStore extends DataStore
+{
+	//how many players' data may be waiting to be written before saves start waiting (briefly) on the database
+	final static int writeQueueCapacity = 1000;
+	
+	//most rows sent to the database in one batch
+	final static int maxBatchSize = 500;
+	
+	private String databaseUrl;
+	private String userName;
+	private String password;
+	
+	//idle connections, ready for reuse
+	private ArrayBlockingQueue<Connection> idleConnections;
+	
+	//the upsert statement differs between databases
+	private String upsertSql;
+	
+	//writes to the database in the background
+	private WriteBehindQueue writeQueue;
+	
+	DatabaseDataStore(String url, String userName, String password, int poolSize) throws SQLException
+	{
+		this.databaseUrl = url;
+		this.userName = userName;
+		this.password = password;
+		this.idleConnections = new ArrayBlockingQueue<Connection>(Math.max(poolSize, 1));
+		
+		String lowerUrl = url.toLowerCase();
+		if(lowerUrl.startsWith("jdbc:sqlite:"))
+		{
+			this.upsertSql = "INSERT OR REPLACE INTO antixray_playerdata (name, points) VALUES (?, ?);";
+		}
+		else if(lowerUrl.startsWith("jdbc:h2:"))
+		{
+			this.upsertSql = "MERGE INTO antixray_playerdata (name, points) KEY (name) VALUES (?, ?);";
+		}
+		else
+		{
+			this.upsertSql = "INSERT INTO antixray_playerdata (name, points) VALUES (?, ?) ON DUPLICATE KEY UPDATE points = VALUES(points);";
+		}
+		
+		//create the table if it doesn't exist yet.  this also fails early when the database can't be reached
+		Connection connection = this.getConnection();
+		try
+		{
+			Statement statement = connection.createStatement();
+			statement.execute("CREATE TABLE IF NOT EXISTS antixray_playerdata (name VARCHAR(50) NOT NULL PRIMARY KEY, points INT NOT NULL);");
+			statement.close();
+			this.releaseConnection(connection);
+		}
+		catch(SQLException e)
+		{
+			this.discardConnection(connection);
+			throw e;
+		}
+		
+		this.initialize();
+	}
+	
+	@Override
+	void initialize()
+	{
+		super.initialize();
+		
+		//start the background writer
+		this.writeQueue = new WriteBehindQueue(this, writeQueueCapacity);
+		this.writeQueue.start();
+	}
+	
+	//takes an idle connection from the pool, or opens a new one if there are none
+	private Connection getConnection() throws SQLException
+	{
+		Connection connection = this.idleConnections.poll();
+		if(connection != null && !connection.isClosed()) return connection;
+		
+		return DriverManager.getConnection(this.databaseUrl, this.userName, this.password);
+	}
+	
+	//returns a connection to the pool, closing it if the pool is already full
+	private void releaseConnection(Connection connection)
+	{
+		if(!this.idleConnections.offer(connection))
+		{
+			this.discardConnection(connection);
+		}
+	}
+	
+	//closes a connection which may be in a bad state
+	private void discardConnection(Connection connection)
+	{
+		try
+		{
+			connection.close();
+		}
+		catch(SQLException exception) {}
+	}
+	
+	@Override
+	PlayerData loadPlayerDataFromStorage(String playerName) throws IOException
+	{
+		//if this player's data is still waiting to be written, that's the newest copy
+		PlayerData pendingData = this.writeQueue.getPending(playerName);
+		if(pendingData != null)
+		{
+			return pendingData.snapshot();
+		}
+		
+		Connection connection = null;
+		try
+		{
+			connection = this.getConnection();
+			PreparedStatement statement = connection.prepareStatement("SELECT points FROM antixray_playerdata WHERE name = ?;");
+			statement.setString(1, playerName);
+			ResultSet results = statement.executeQuery();
+			
+			PlayerData playerData = null;
+			if(results.next())
+			{
+				playerData = new PlayerData();
+				playerData.setPoints(results.getInt(1));
+			}
+			
+			results.close();
+			statement.close();
+			this.releaseConnection(connection);
+			
+			return playerData;
+		}
+		
+		//if there's any problem, log it and let the caller decide.  returning defaults here would get them saved over his real row
+		catch(SQLException e)
+		{
+			AntiXRay.AddLogEntry("Unable to load data for player \"" + playerName + "\": " + e.getMessage());
+			if(connection != null) this.discardConnection(connection);
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+	
+	@Override
+	void savePlayerData(String playerName, PlayerData playerData)
+	{
+		//hand a copy to the background writer
+		this.writeQueue.enqueue(playerName, playerData.snapshot());
+	}
+	
+	@Override
+	void savePlayerDataBatch(Map<String, PlayerData> batch)
+	{
+		//hand the whole batch to the background writer at once, so it's written together
+		this.writeQueue.enqueueAll(batch);
+	}
+	
+	@Override
+	void writePlayerDataBatch(Map<String, PlayerData> batch) throws SQLException
+	{
+		long start = System.nanoTime();
+		Connection connection = null;
+		try
+		{
+			connection = this.getConnection();
+			connection.setAutoCommit(false);
+			PreparedStatement statement = connection.prepareStatement(this.upsertSql);
+			
+			//send the rows in batches, all in one transaction
+			int batchSize = 0;
+			for(Map.Entry<String, PlayerData> entry : batch.entrySet())
+			{
+				statement.setString(1, entry.getKey());
+				statement.setInt(2, entry.getValue().getPoints());
+				statement.addBatch();
+				
+				if(++batchSize == maxBatchSize)
+				{
+					statement.executeBatch();
+					batchSize = 0;
+				}
+			}
+			
+			if(batchSize > 0) statement.executeBatch();
+			
+			connection.commit();
+			statement.close();
+			connection.setAutoCommit(true);
+			this.releaseConnection(connection);
+			
+			//the whole batch is one write, as far as timing goes
+			Metrics metrics = AntiXRay.instance.metrics;
+			metrics.saveLatency.record(System.nanoTime() - start);
+			metrics.playersSaved.addAndGet(batch.size());
+		}
+		
+		//if any problem, drop the connection (it may be what's broken) and let the writer try again
+		catch(SQLException e)
+		{
+			if(connection != null) this.discardConnection(connection);
+			throw e;
+		}
+	}
+	
+	@Override
+	void close()
+	{
+		//write anything still queued, then close all the connections
+		this.writeQueue.shutdown();
+		
+		Connection connection;
+		while((connection = this.idleConnections.poll()) != null)
+		{
+			this.discardConnection(connection);
+		}
+	}
+}
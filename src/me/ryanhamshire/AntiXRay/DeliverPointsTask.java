@@ -18,52 +18,238 @@
  
  package me.ryanhamshire.AntiXRay;
 
+import java.util.ArrayList;
+
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerMoveEvent;
 
 //FEATURE: give players points for playing, as long as they're not away from their computer
 
-//runs every 5 minutes in the main thread, grants points per hour / 12 to each online player who appears to be actively playing
-class DeliverPointsTask implements Runnable 
+//runs every tick in the main thread.  each online player is visited once every 5 minutes, on his own tick within that period, so the work is spread out instead of happening all at once
+//grants points per hour / 12 to each visited player who appears to be actively playing
+//alternatively, when configured to earn points on demand, this never runs.  instead it listens for players moving, to note which 5 minute periods
+//each player was active in, and the points earned for those periods are settled when they're needed (see settlePoints())
+class DeliverPointsTask implements Runnable, Listener
 {	
+	//how often each player is visited, in ticks (20 ticks ~ 1 second)
+	final static int PERIOD_TICKS = 20 * 60 * 5;
+	
+	//the same period, in milliseconds, for noting activity when points are earned on demand
+	final static long PERIOD_MILLISECONDS = 1000L * 60 * 5;
+	
+	//whether points are settled on demand instead of delivered by this task
+	private boolean onDemand;
+	
+	//one list of players per tick in the period
+	private ArrayList<ArrayList<Player>> phases;
+	
+	//which tick in the period this is
+	private int currentPhase = 0;
+	
+	//where the next player added will be visited.  assigned round-robin so players are spread evenly across the period
+	private int nextPhase = 0;
+	
+	//reused for every location check, to avoid allocating a Location per player
+	private Location reusableLocation = new Location(null, 0, 0, 0);
+	
+	DeliverPointsTask(boolean onDemand)
+	{
+		this.onDemand = onDemand;
+		if(onDemand) return;
+		
+		this.phases = new ArrayList<ArrayList<Player>>(PERIOD_TICKS);
+		for(int i = 0; i < PERIOD_TICKS; i++)
+		{
+			this.phases.add(null);
+		}
+	}
+	
+	//starts giving a player points.  called on join, and for everyone already online when the plugin is enabled
+	void addPlayer(Player player, PlayerData playerData)
+	{
+		//on demand, just start the clock
+		if(this.onDemand)
+		{
+			playerData.activityPeriodStart = System.currentTimeMillis();
+			playerData.activeThisPeriod = false;
+			playerData.unsettledActiveTime = 0;
+			this.rememberLocation(playerData, player.getLocation(this.reusableLocation));
+			return;
+		}
+		
+		int phase = this.nextPhase;
+		this.nextPhase = (this.nextPhase + 1) % PERIOD_TICKS;
+		
+		ArrayList<Player> players = this.phases.get(phase);
+		if(players == null)
+		{
+			players = new ArrayList<Player>(1);
+			this.phases.set(phase, players);
+		}
+		
+		players.add(player);
+		playerData.deliverPointsPhase = phase;
+	}
+	
+	//stops giving a player points.  called on quit
+	void removePlayer(Player player, PlayerData playerData)
+	{
+		//on demand, give him what he's earned so far so it gets saved
+		if(this.onDemand)
+		{
+			this.settlePoints(player, playerData);
+			return;
+		}
+		
+		if(playerData.deliverPointsPhase < 0) return;
+		
+		ArrayList<Player> players = this.phases.get(playerData.deliverPointsPhase);
+		if(players != null) players.remove(player);
+		playerData.deliverPointsPhase = -1;
+	}
+	
 	@Override
 	public void run()
 	{
-		Player [] players = AntiXRay.instance.getServer().getOnlinePlayers();
+		ArrayList<Player> players = this.phases.get(this.currentPhase);
+		this.currentPhase = (this.currentPhase + 1) % PERIOD_TICKS;
+		if(players == null || players.isEmpty()) return;
 		
-		//ensure players get at least 1 point
-		int pointsEarned = AntiXRay.instance.config_pointsPerHour / 12;
-		if(pointsEarned == 0) pointsEarned = 1;
+		DataStore dataStore = AntiXRay.instance.dataStore;
+		EnabledWorlds enabledWorlds = AntiXRay.instance.config.enabledWorlds;
 		
-		//for each online player
-		for(int i = 0; i < players.length; i++)
+		//for each online player in this tick's slice
+		for(int i = 0; i < players.size(); i++)
 		{
-			Player player = players[i];
-			DataStore dataStore = AntiXRay.instance.dataStore;
+			Player player = players.get(i);
 			PlayerData playerData = dataStore.getPlayerData(player);
+			Location location = player.getLocation(this.reusableLocation);
 			
-			Location lastLocation = playerData.lastAfkCheckLocation;
-			try  //distance squared will throw an exception if the player has changed worlds
+			//if he's not in a vehicle and has moved at least three blocks since the last check
+			if(this.isActive(player, playerData, location))
 			{
-				//if he's not in a vehicle and has moved at least three blocks since the last check
-				if(!player.isInsideVehicle() && (lastLocation == null || lastLocation.distanceSquared(player.getLocation()) >= 9))
-				{					
-					playerData.points += pointsEarned;
-					
-					//respect limits
-					if(playerData.points > AntiXRay.instance.config_maxPoints)
-					{
-						playerData.points = AntiXRay.instance.config_maxPoints; 
-					}
-					
-					//intentionally NOT saving changes.  accrued score will be saved on logout, when successfully breaking a block, or during server shutdown
-					//dataStore.savePlayerData(player.getName(), playerData);
-				}
+				//points are earned at the rate of the world he's in
+				WorldRules rules = enabledWorlds.getRulesOrDefault(player.getWorld());
+				
+				//ensure players get at least 1 point
+				int pointsEarned = rules.pointsPerHour / 12;
+				if(pointsEarned == 0) pointsEarned = 1;
+				
+				this.addPoints(player, playerData, pointsEarned, rules.maxPoints);
 			}
-			catch(Exception e) { }
 			
 			//remember current location for next time
-			playerData.lastAfkCheckLocation = player.getLocation();
+			this.rememberLocation(playerData, location);
+		}
+	}
+	
+	//when earning points on demand, notes whether a player is active in the current period.  runs for every move, so it returns right away
+	//unless he's changed blocks and hasn't already been counted as active for this period
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onPlayerMove(PlayerMoveEvent event)
+	{
+		Location from = event.getFrom();
+		Location to = event.getTo();
+		if(from.getBlockX() == to.getBlockX() && from.getBlockY() == to.getBlockY() && from.getBlockZ() == to.getBlockZ()) return;
+		
+		Player player = event.getPlayer();
+		PlayerData playerData = AntiXRay.instance.recentPlayerData.get(player);
+		
+		long now = System.currentTimeMillis();
+		if(playerData.activeThisPeriod && now - playerData.activityPeriodStart < PERIOD_MILLISECONDS) return;
+		
+		this.closePeriods(playerData, now);
+		
+		//as with the polling task, he's active once he's moved at least three blocks.  his location is only remembered once he has,
+		//so a slow-moving miner still gets credit when he's covered three blocks.  he isn't at the destination until after this event, so that's checked rather than his location
+		if(this.isActive(player, playerData, to))
+		{
+			playerData.activeThisPeriod = true;
+			this.rememberLocation(playerData, to);
+		}
+	}
+	
+	//when earning points on demand, credits a player with the points he's earned for the periods he was active in since this was last called.  a no-op otherwise
+	//like the polling task, only whole periods count, and a period he didn't move three blocks in earns nothing
+	void settlePoints(Player player, PlayerData playerData)
+	{
+		if(!this.onDemand) return;
+		
+		this.closePeriods(playerData, System.currentTimeMillis());
+		if(playerData.unsettledActiveTime <= 0) return;
+		
+		//points are earned at the rate of the world he's in now.  a world without points doesn't save the time up for later
+		WorldRules rules = AntiXRay.instance.config.enabledWorlds.getRulesOrDefault(player.getWorld());
+		int pointsPerHour = rules.pointsPerHour;
+		if(pointsPerHour <= 0)
+		{
+			playerData.unsettledActiveTime = 0;
+			return;
 		}
+		
+		//whole points earned for that time.  only the time those points account for is used up, so fractions carry over
+		long pointsEarned = playerData.unsettledActiveTime * pointsPerHour / (1000L * 60 * 60);
+		if(pointsEarned <= 0) return;
+		
+		playerData.unsettledActiveTime -= pointsEarned * (1000L * 60 * 60) / pointsPerHour;
+		
+		//after a long time, the points earned can be more than fit in an int, but more than that is past any maximum anyway
+		this.addPoints(player, playerData, (int)Math.min(pointsEarned, Integer.MAX_VALUE), rules.maxPoints);
+	}
+	
+	//ends any periods which are over, counting the current one towards active time if he was active in it
+	//any further whole periods since then passed without him moving, so they're forfeit
+	private void closePeriods(PlayerData playerData, long now)
+	{
+		long elapsed = now - playerData.activityPeriodStart;
+		if(elapsed < PERIOD_MILLISECONDS) return;
+		
+		if(playerData.activeThisPeriod) playerData.unsettledActiveTime += PERIOD_MILLISECONDS;
+		
+		playerData.activityPeriodStart += elapsed / PERIOD_MILLISECONDS * PERIOD_MILLISECONDS;
+		playerData.activeThisPeriod = false;
+	}
+	
+	//gives a player points, up to the maximum
+	private void addPoints(Player player, PlayerData playerData, int pointsEarned, int maxPoints)
+	{
+		//respects limits.  done in one step, since the points service may be changing his points from another thread
+		int points = playerData.addPoints(pointsEarned, maxPoints);
+		AntiXRay.instance.leaderboard.pointsChanged(player.getName(), points);
+		
+		//intentionally NOT saving changes.  accrued score will be saved by the next checkpoint, on logout, or during server shutdown
+		playerData.dirty = true;
+	}
+	
+	//whether a player appears to be actively playing: not in a vehicle and has moved at least three blocks (or changed worlds) since his location was last remembered
+	private boolean isActive(Player player, PlayerData playerData, Location location)
+	{
+		boolean moved;
+		if(playerData.lastAfkCheckWorldID == null || !playerData.lastAfkCheckWorldID.equals(location.getWorld().getUID()))
+		{
+			moved = true;
+		}
+		else
+		{
+			double dx = location.getX() - playerData.lastAfkCheckX;
+			double dy = location.getY() - playerData.lastAfkCheckY;
+			double dz = location.getZ() - playerData.lastAfkCheckZ;
+			moved = dx * dx + dy * dy + dz * dz >= 9;
+		}
+		
+		return moved && !player.isInsideVehicle();
+	}
+	
+	//remembers a player's location, to compare against next time
+	private void rememberLocation(PlayerData playerData, Location location)
+	{
+		playerData.lastAfkCheckWorldID = location.getWorld().getUID();
+		playerData.lastAfkCheckX = location.getX();
+		playerData.lastAfkCheckY = location.getY();
+		playerData.lastAfkCheckZ = location.getZ();
 	}
 }
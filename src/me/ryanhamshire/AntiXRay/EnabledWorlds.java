@@ -0,0 +1,106 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.bukkit.World;
+
+//the worlds where players are limited in how quickly they can mine valuable ores, and the rules for each
+//worlds are configured by name and resolved to their unique IDs as they load, so worlds loaded (or reloaded) after startup are picked up automatically
+//only used from the main thread
+class EnabledWorlds
+{
+	//rules for worlds without their own settings, and for working out points earned in worlds which aren't enabled
+	private WorldRules defaultRules;
+	
+	//rules for each enabled world, by name, from the config file
+	private HashMap<String, WorldRules> rulesByWorldName = new HashMap<String, WorldRules>();
+	
+	//rules for each enabled world which is currently loaded, by world ID
+	private HashMap<UUID, WorldRules> rulesByWorldID = new HashMap<UUID, WorldRules>();
+	
+	//the ID of the world looked up last time, and its rules.  most events happen in the same world as the one before, so this usually saves the hash lookup
+	//kept by ID rather than by World, so an unloaded world is never held in memory
+	private UUID lastWorldID = null;
+	private WorldRules lastRules = null;
+	
+	EnabledWorlds(WorldRules defaultRules)
+	{
+		this.defaultRules = defaultRules;
+	}
+	
+	WorldRules getDefaultRules()
+	{
+		return this.defaultRules;
+	}
+	
+	//enables a world by name, with the specified rules
+	void enable(String worldName, WorldRules rules)
+	{
+		this.rulesByWorldName.put(worldName, rules);
+	}
+	
+	//whether a world name is enabled
+	boolean isEnabled(String worldName)
+	{
+		return this.rulesByWorldName.containsKey(worldName);
+	}
+	
+	//called when a world loads, including the worlds already loaded at startup
+	void worldLoaded(World world)
+	{
+		WorldRules rules = this.rulesByWorldName.get(world.getName());
+		if(rules != null)
+		{
+			this.rulesByWorldID.put(world.getUID(), rules);
+		}
+		
+		this.lastWorldID = null;
+	}
+	
+	//called when a world unloads, so no reference to it is kept
+	void worldUnloaded(World world)
+	{
+		this.rulesByWorldID.remove(world.getUID());
+		this.lastWorldID = null;
+		this.lastRules = null;
+	}
+	
+	//returns the rules for a world, or null if the world isn't enabled
+	WorldRules getRules(World world)
+	{
+		UUID worldID = world.getUID();
+		if(worldID.equals(this.lastWorldID)) return this.lastRules;
+		
+		WorldRules rules = this.rulesByWorldID.get(worldID);
+		this.lastWorldID = worldID;
+		this.lastRules = rules;
+		return rules;
+	}
+	
+	//returns the rules for a world, or the default rules if the world isn't enabled
+	WorldRules getRulesOrDefault(World world)
+	{
+		WorldRules rules = this.getRules(world);
+		if(rules == null) rules = this.defaultRules;
+		return rules;
+	}
+}
@@ -19,10 +19,8 @@
 package me.ryanhamshire.AntiXRay;
 
 import java.util.List;
-import java.util.AbstractMap.SimpleEntry;
 
 import org.bukkit.Location;
-import org.bukkit.Material;
 import org.bukkit.block.Block;
 
 import org.bukkit.event.EventHandler;
@@ -34,6 +32,7 @@ import org.bukkit.event.entity.EntityExplodeEvent;
 class EntityEventHandler implements Listener
 {
 	//when there's an explosion...
+	//(this includes beds exploding in the nether or the end, which are reported with no entity)
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.LOWEST)
 	public void onEntityExplode(EntityExplodeEvent explodeEvent)
 	{		
@@ -41,25 +40,44 @@ class EntityEventHandler implements Listener
 		Location location = explodeEvent.getLocation();
 		
 		//don't do anything when the explosion world isn't one of the controlled worlds
-		if(!AntiXRay.instance.config_enabledWorlds.contains(location.getWorld())) return;
+		WorldRules rules = AntiXRay.instance.config.enabledWorlds.getRules(location.getWorld());
+		if(rules == null) return;
 		
 		//FEATURE: don't allow players to circumvent the anti xray limitation by using explosives to anonymously break a block
+		int protectedCount = removeProtectedBlocks(blocks, rules.protectedBlockValues);
 		
-		//for each block that will be broken by the explosion
-		for(int j = 0; j < blocks.size(); j++)
+		Metrics metrics = AntiXRay.instance.metrics;
+		metrics.explosions.incrementAndGet();
+		if(protectedCount > 0) metrics.explodedBlocksProtected.addAndGet(protectedCount);
+	}
+	
+	//removes protected blocks from an explosion's block list (so they don't break), in a single pass over the list.  returns how many were removed
+	//shared by any event which reports a list of blocks about to be destroyed
+	static int removeProtectedBlocks(List<Block> blocks, ProtectedBlockValues protectedBlockValues)
+	{
+		//find the first protected block.  most explosions don't have one, and then the list isn't touched at all
+		int size = blocks.size();
+		int readIndex = 0;
+		while(readIndex < size && !protectedBlockValues.isProtectedFromExplosions(blocks.get(readIndex).getType()))
 		{
-			Block block = blocks.get(j);
+			readIndex++;
+		}
+		
+		if(readIndex == size) return 0;
 		
-			//look for that block's type in the list of protected blocks
-			for(int i = 0; i < AntiXRay.instance.config_protectedBlocks.size(); i++)
-			{			
-				//if it's type is in our protected blocks list, remove the block from the explosion list (so it doesn't break)
-				SimpleEntry<Material, Integer> entry = AntiXRay.instance.config_protectedBlocks.get(i);
-				if(entry.getKey() == block.getType() && entry.getValue() > 0)
-				{
-					blocks.remove(j--);
-				}
+		//from there, shift each unprotected block down over the protected ones, then cut off the leftovers at the end
+		//(removing protected blocks one at a time would shift the rest of the list every time)
+		int writeIndex = readIndex;
+		for(readIndex++; readIndex < size; readIndex++)
+		{
+			Block block = blocks.get(readIndex);
+			if(!protectedBlockValues.isProtectedFromExplosions(block.getType()))
+			{
+				blocks.set(writeIndex++, block);
 			}
 		}
+		
+		blocks.subList(writeIndex, size).clear();
+		return size - writeIndex;
 	}
 }
@@ -19,13 +19,25 @@
 package me.ryanhamshire.AntiXRay;
 
 import java.io.*;
-import org.bukkit.entity.Player;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
 
 //singleton class which manages all AntiXRay data (except for config options)
 class FlatFileDataStore extends DataStore
 {
 	final static String playerDataFolderPath = dataLayerFolderPath + File.separator + "PlayerData";
 	
+	//player files are written under this suffix first, then renamed into place.  player names can't contain a period, so these never clash with a player file
+	final static String tempFileSuffix = ".tmp";
+	
+	//how many players' data may be waiting to be written before saves start waiting (briefly) on the disk
+	final static int writeQueueCapacity = 1000;
+	
+	//writes player files in the background
+	private WriteBehindQueue writeQueue;
+	
 	FlatFileDataStore()
 	{
 		this.initialize();
@@ -38,104 +50,176 @@ class FlatFileDataStore extends DataStore
 		
 		//ensure data folders exist
 		new File(playerDataFolderPath).mkdirs();
+		
+		//start the background writer
+		this.writeQueue = new WriteBehindQueue(this, writeQueueCapacity);
+		this.writeQueue.start();
 	}
 	
 	@Override
-	PlayerData loadPlayerDataFromStorage(Player player)
+	PlayerData loadPlayerDataFromStorage(String playerName) throws IOException
 	{
-		String playerName = player.getName();
+		//if this player's data is still waiting to be written, that's the newest copy
+		PlayerData pendingData = this.writeQueue.getPending(playerName);
+		if(pendingData != null)
+		{
+			return pendingData.snapshot();
+		}
 		
 		File playerFile = new File(playerDataFolderPath + File.separator + playerName);
-						
-		PlayerData playerData = new PlayerData();
 		
-		//if it doesn't exist as a file
+		//if it doesn't exist as a file, there's nothing to load
 		if(!playerFile.exists())
 		{
-			//default points = max when the player has played on the server before
-			//otherwise, use starting points from config file
-			if(!player.hasPlayedBefore())
-			{
-				playerData.points = AntiXRay.instance.config_startingPoints;
-			}
-			else
-			{
-				playerData.points = AntiXRay.instance.config_maxPoints;
-			}
-			
-			//create a file with defaults
-			this.savePlayerData(playerName, playerData);
+			return null;
 		}
 		
 		//otherwise, read the file
-		else
-		{			
-			BufferedReader inStream = null;
+		return readPlayerFile(playerFile, playerName);
+	}
+	
+	//reads one player's file.  shared with the importer in MappedFileDataStore
+	//a file which can't be read or makes no sense is an error, never defaults, which would be saved over his real points
+	static PlayerData readPlayerFile(File playerFile, String playerName) throws IOException
+	{
+		PlayerData playerData = new PlayerData();
+		
+		try
+		{
+			playerData.setPoints(readPoints(playerFile));
+		}
+			
+		//if there's any problem with the file's content, log an error message and pass it on
+		catch(IOException e)
+		{
+			AntiXRay.AddLogEntry("Unable to load data for player \"" + playerName + "\": " + e.getMessage());
+			throw e;
+		}
+		catch(NumberFormatException e)
+		{
+			AntiXRay.AddLogEntry("Unable to load data for player \"" + playerName + "\": " + e.getMessage());
+			throw new IOException("bad points in \"" + playerFile.getPath() + "\"", e);
+		}
+		
+		return playerData;
+	}
+	
+	//reads a player file's contents.  shared with bulk maintenance (see PlayerDataMaintenance), which has no use for the rest of PlayerData
+	static int readPoints(File playerFile) throws IOException
+	{
+		BufferedReader inStream = new BufferedReader(new FileReader(playerFile));
+		try
+		{
+			//first line is points
+			String pointsString = inStream.readLine();
+			if(pointsString == null) throw new IOException("empty file");
+			
+			//convert that to a number
+			return Integer.parseInt(pointsString.trim());
+		}
+		finally
+		{
+			inStream.close();
+		}
+	}
+	
+	@Override
+	void savePlayerData(String playerName, PlayerData playerData)
+	{
+		//hand a copy to the background writer
+		this.writeQueue.enqueue(playerName, playerData.snapshot());
+	}
+	
+	@Override
+	void savePlayerDataBatch(Map<String, PlayerData> batch)
+	{
+		//hand the whole batch to the background writer at once, so it's written together
+		this.writeQueue.enqueueAll(batch);
+	}
+	
+	@Override
+	void writePlayerDataBatch(Map<String, PlayerData> batch) throws IOException
+	{
+		//one bad file shouldn't keep the rest from being written, so keep going and report the first problem at the end
+		IOException firstFailure = null;
+		
+		Metrics metrics = AntiXRay.instance.metrics;
+		for(Map.Entry<String, PlayerData> entry : batch.entrySet())
+		{
+			long start = System.nanoTime();
 			try
-			{					
-				inStream = new BufferedReader(new FileReader(playerFile.getAbsolutePath()));
-				
-				//first line is points
-				String pointsString = inStream.readLine();
-				
-				//convert that to a number and store it
-				playerData.points = Integer.parseInt(pointsString);
-				
-				inStream.close();
-			}
-				
-			//if there's any problem with the file's content, log an error message
-			catch(Exception e)
 			{
-				 AntiXRay.AddLogEntry("Unable to load data for player \"" + playerName + "\": " + e.getMessage());			 
+				writePoints(new File(playerDataFolderPath + File.separator + entry.getKey()), entry.getValue().getPoints(), true);
 			}
 			
-			try
+			//if any problem, log it
+			catch(IOException e)
 			{
-				if(inStream != null) inStream.close();
+				AntiXRay.AddLogEntry("Unexpected exception saving data for player \"" + entry.getKey() + "\": " + e.getMessage());
+				if(firstFailure == null) firstFailure = e;
+				continue;
 			}
-			catch(IOException exception) {}
+			
+			metrics.saveLatency.record(System.nanoTime() - start);
+			metrics.playersSaved.incrementAndGet();
 		}
 		
-		return playerData;
+		if(firstFailure != null) throw firstFailure;
 	}
 	
-	@Override
-	void savePlayerData(String playerName, PlayerData playerData)
+	//writes a player file's contents.  shared with bulk maintenance (see PlayerDataMaintenance)
+	//the file is written under a temporary name and then renamed over the old one, so a crash mid-write never leaves a truncated file behind
+	//syncing makes sure the new contents are really on disk before the rename.  bulk rewrites of every file skip that, because it would make them take hours
+	static void writePoints(File playerDataFile, int points, boolean sync) throws IOException
 	{
-		BufferedWriter outStream = null;
+		File tempFile = new File(playerDataFile.getPath() + tempFileSuffix);
+		
+		FileOutputStream fileStream = new FileOutputStream(tempFile);
 		try
 		{
-			//open the player's file
-			File playerDataFile = new File(playerDataFolderPath + File.separator + playerName);
-			playerDataFile.createNewFile();
-			outStream = new BufferedWriter(new FileWriter(playerDataFile));
+			//write the temporary file
+			BufferedWriter outStream = new BufferedWriter(new OutputStreamWriter(fileStream));
 			
 			//first line is available points
-			outStream.write(String.valueOf(playerData.points));
-			outStream.newLine();			
-		}		
-		
-		//if any problem, log it
-		catch(Exception e)
+			outStream.write(String.valueOf(points));
+			outStream.newLine();
+			outStream.flush();
+			
+			if(sync) fileStream.getFD().sync();
+		}
+		finally
 		{
-			AntiXRay.AddLogEntry("Unexpected exception saving data for player \"" + playerName + "\": " + e.getMessage());
+			fileStream.close();
 		}
 		
+		//swap it in
 		try
 		{
-			//close the file
-			if(outStream != null)
-			{
-				outStream.close();
-			}
+			Files.move(tempFile.toPath(), playerDataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		}
-		catch(IOException exception){}
+		catch(AtomicMoveNotSupportedException e)
+		{
+			Files.move(tempFile.toPath(), playerDataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	//returns a copy of the newest not-yet-written save for a player, or null if nothing is waiting to be written for him
+	PlayerData getPendingSave(String playerName)
+	{
+		PlayerData pendingData = this.writeQueue.getPending(playerName);
+		return pendingData == null ? null : pendingData.snapshot();
+	}
+	
+	//waits until every save queued so far has been written to disk
+	void flush() throws InterruptedException
+	{
+		this.writeQueue.awaitIdle();
 	}
 	
 	@Override
 	void close()
 	{ 
-		//nothing to do here because files are not left open after reading or writing
+		//files are not left open after reading or writing, but anything still queued must be written before the server shuts down
+		this.writeQueue.shutdown();
 	}
 }
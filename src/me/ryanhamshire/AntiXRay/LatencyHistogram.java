@@ -0,0 +1,101 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//counts how long something takes, in power-of-two buckets of nanoseconds
+//recording is a couple of atomic increments and never allocates, so it's cheap enough to leave on.  safe to use from any thread
+class LatencyHistogram
+{
+	//bucket i holds durations below 2^i nanoseconds (and at least 2^(i-1)).  the last bucket also holds anything longer, about 2 minutes and up
+	final static int BUCKETS = 38;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanoseconds = new AtomicLong();
+	private final AtomicLong maxNanoseconds = new AtomicLong();
+	
+	//records one duration
+	void record(long nanoseconds)
+	{
+		if(nanoseconds < 0) nanoseconds = 0;
+		
+		int bucket = 64 - Long.numberOfLeadingZeros(nanoseconds);
+		if(bucket >= BUCKETS) bucket = BUCKETS - 1;
+		
+		this.counts.incrementAndGet(bucket);
+		this.count.incrementAndGet();
+		this.totalNanoseconds.addAndGet(nanoseconds);
+		
+		long max = this.maxNanoseconds.get();
+		while(nanoseconds > max && !this.maxNanoseconds.compareAndSet(max, nanoseconds))
+		{
+			max = this.maxNanoseconds.get();
+		}
+	}
+	
+	long getCount()
+	{
+		return this.count.get();
+	}
+	
+	long getMeanNanoseconds()
+	{
+		long count = this.count.get();
+		if(count == 0) return 0;
+		return this.totalNanoseconds.get() / count;
+	}
+	
+	long getMaxNanoseconds()
+	{
+		return this.maxNanoseconds.get();
+	}
+	
+	//an upper bound on the given percentile (0 to 100), accurate to within a factor of two
+	long getPercentileNanoseconds(double percentile)
+	{
+		long [] counts = new long[BUCKETS];
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			counts[i] = this.counts.get(i);
+			count += counts[i];
+		}
+		
+		if(count == 0) return 0;
+		
+		long rank = (long)Math.ceil(count * percentile / 100);
+		if(rank < 1) rank = 1;
+		
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts[i];
+			if(seen >= rank)
+			{
+				//no bucket's bound is worse than the slowest duration actually seen
+				return Math.min(1L << i, this.maxNanoseconds.get());
+			}
+		}
+		
+		return this.maxNanoseconds.get();
+	}
+}
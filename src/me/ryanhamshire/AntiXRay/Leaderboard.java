@@ -0,0 +1,455 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+//FEATURE: show moderators who has spent the most points lately and who has the most points, without reading every player's data
+
+//two rankings, kept up to date as points are charged and earned: points spent on valuable blocks this period, and current points
+//each holds only the top few players (many more than are listed), by name and in a sorted set, so an update is a couple of tree operations on a small tree and listing the top players only walks the first few
+//the last entry in a full ranking is the threshold a player has to beat to get in, and beating it pushes that entry out.  nobody's data is read to build it
+//every spender's total for the period is kept (only ever growing, and started over each period), and the spent ranking holds those same entries, so it's always exact
+//saved to one small file at checkpoints and shutdown, so it survives restarts.  changed from the main thread and the points service's threads, so it's synchronized
+class Leaderboard
+{
+	final static String leaderboardFilePath = DataStore.dataLayerFolderPath + File.separator + "leaderboard.dat";
+	
+	//first number in the file, in case the format ever changes
+	private final static int FILE_VERSION = 2;
+	
+	//how many players each ranking holds.  only the first few are listed; the rest keep the listed ones right as players move up and down
+	private final static int RANKED_PLAYERS = 100;
+	
+	//one player's place in a ranking
+	static class Entry
+	{
+		final String playerName;
+		long value;
+		
+		Entry(String playerName, long value)
+		{
+			this.playerName = playerName;
+			this.value = value;
+		}
+	}
+	
+	//highest value first, ties in name order
+	private final static Comparator<Entry> HIGHEST_FIRST = new Comparator<Entry>()
+	{
+		@Override
+		public int compare(Entry a, Entry b)
+		{
+			if(a.value != b.value) return a.value > b.value ? -1 : 1;
+			return a.playerName.compareTo(b.playerName);
+		}
+	};
+	
+	//one ranking, of at most RANKED_PLAYERS players.  an entry's value is only changed while it's out of the sorted set, so the set stays in order
+	private static class Ranking
+	{
+		private HashMap<String, Entry> entriesByName = new HashMap<String, Entry>();
+		private TreeSet<Entry> sortedEntries = new TreeSet<Entry>(HIGHEST_FIRST);
+		
+		void set(String playerName, long value)
+		{
+			Entry entry = this.entriesByName.get(playerName);
+			if(entry == null) entry = new Entry(playerName, 0);
+			this.set(entry, value);
+		}
+		
+		//changes an entry's value and moves it to its new place.  the entry may be kept by the caller too (spent totals are), in which case it's changed even if it isn't ranked
+		void set(Entry entry, long value)
+		{
+			boolean ranked = this.entriesByName.get(entry.playerName) == entry;
+			if(ranked)
+			{
+				if(entry.value == value) return;
+				this.sortedEntries.remove(entry);
+				entry.value = value;
+				
+				//if he's dropped below everyone else in a full ranking, a player who was pushed out earlier may be ahead of him now, so he goes too
+				if(this.sortedEntries.size() + 1 >= RANKED_PLAYERS && value < this.sortedEntries.last().value)
+				{
+					this.entriesByName.remove(entry.playerName);
+					return;
+				}
+			}
+			else
+			{
+				entry.value = value;
+				
+				//a full ranking only takes a player ahead of its last entry, who's pushed out to make room
+				if(this.sortedEntries.size() >= RANKED_PLAYERS)
+				{
+					Entry threshold = this.sortedEntries.last();
+					if(value <= threshold.value) return;
+					this.sortedEntries.pollLast();
+					this.entriesByName.remove(threshold.playerName);
+				}
+				
+				this.entriesByName.put(entry.playerName, entry);
+			}
+			
+			this.sortedEntries.add(entry);
+		}
+		
+		//copies of the first few entries, so they can be used after the lock is released
+		List<Entry> top(int count)
+		{
+			ArrayList<Entry> top = new ArrayList<Entry>();
+			Iterator<Entry> iterator = this.sortedEntries.iterator();
+			while(top.size() < count && iterator.hasNext())
+			{
+				Entry entry = iterator.next();
+				top.add(new Entry(entry.playerName, entry.value));
+			}
+			
+			return top;
+		}
+		
+		//lowers every value above a maximum to that maximum
+		void clamp(long maximum)
+		{
+			ArrayList<Entry> lowered = new ArrayList<Entry>();
+			while(!this.sortedEntries.isEmpty() && this.sortedEntries.first().value > maximum)
+			{
+				Entry entry = this.sortedEntries.pollFirst();
+				entry.value = maximum;
+				lowered.add(entry);
+			}
+			
+			this.sortedEntries.addAll(lowered);
+		}
+		
+		void clear()
+		{
+			this.entriesByName.clear();
+			this.sortedEntries.clear();
+		}
+		
+		//copies of every entry, in ranked order
+		List<Entry> copy()
+		{
+			return this.top(this.sortedEntries.size());
+		}
+		
+		void read(DataInputStream inStream) throws IOException
+		{
+			int count = inStream.readInt();
+			for(int i = 0; i < count; i++)
+			{
+				String playerName = inStream.readUTF();
+				this.set(playerName, inStream.readInt());
+			}
+		}
+	}
+	
+	//how much each player who's spent points on valuable blocks this period has spent, by name.  as small as the number of players mining valuable blocks in one period
+	private HashMap<String, Entry> spentTotals = new HashMap<String, Entry>();
+	
+	//the biggest spent totals
+	private Ranking spent = new Ranking();
+	
+	//current points
+	private Ranking points = new Ranking();
+	
+	//which period the spent points are for: its length in hours, when it started and when it ends (in milliseconds)
+	private int periodHours = 0;
+	private long periodStart = 0;
+	private long periodEnd = 0;
+	
+	//whether there are changes which haven't been saved
+	private boolean dirty = false;
+	
+	//writes the file in the background
+	private ExecutorService writer = Executors.newSingleThreadExecutor();
+	
+	//when a player pays for a valuable block
+	synchronized void pointsCharged(String playerName, int cost, int pointsNow, long now)
+	{
+		this.startPeriod(now);
+		
+		Entry total = this.spentTotals.get(playerName);
+		if(total == null)
+		{
+			total = new Entry(playerName, 0);
+			this.spentTotals.put(playerName, total);
+		}
+		
+		this.spent.set(total, total.value + cost);
+		this.points.set(playerName, pointsNow);
+		this.dirty = true;
+	}
+	
+	//when a player's points change for any other reason
+	synchronized void pointsChanged(String playerName, int pointsNow)
+	{
+		this.points.set(playerName, pointsNow);
+		this.dirty = true;
+	}
+	
+	//after every player's points have been set to the same number, there's nothing left to rank by
+	synchronized void pointsReset()
+	{
+		this.points.clear();
+		this.dirty = true;
+	}
+	
+	//after every player's points have been limited to a maximum
+	synchronized void pointsClamped(int maximum)
+	{
+		this.points.clamp(maximum);
+		this.dirty = true;
+	}
+	
+	//the players who've spent the most points this period, most first
+	synchronized List<Entry> getTopSpent(int count, long now)
+	{
+		this.startPeriod(now);
+		return this.spent.top(count);
+	}
+	
+	//the players with the most points, most first
+	synchronized List<Entry> getTopPoints(int count)
+	{
+		return this.points.top(count);
+	}
+	
+	//when the current period started, in milliseconds
+	synchronized long getPeriodStart(long now)
+	{
+		this.startPeriod(now);
+		return this.periodStart;
+	}
+	
+	//when a new period has begun (or the period length has been changed), starts counting spent points over
+	//periods start at local midnight and follow each other every periodHours, the last one of the day being cut short at the next midnight, so they line up
+	//with the day whatever their length.  periods longer than a day are rounded down to whole days, counted from the epoch
+	private void startPeriod(long now)
+	{
+		int periodHours = AntiXRay.instance.config.leaderboardPeriodHours;
+		if(now >= this.periodStart && now < this.periodEnd && periodHours == this.periodHours) return;
+		
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(now);
+		int hour = calendar.get(Calendar.HOUR_OF_DAY);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		
+		long start, end;
+		if(periodHours < 24)
+		{
+			int startHour = hour - hour % periodHours;
+			calendar.set(Calendar.HOUR_OF_DAY, startHour);
+			start = calendar.getTimeInMillis();
+			
+			if(startHour + periodHours < 24)
+			{
+				calendar.set(Calendar.HOUR_OF_DAY, startHour + periodHours);
+			}
+			else
+			{
+				calendar.set(Calendar.HOUR_OF_DAY, 0);
+				calendar.add(Calendar.DAY_OF_MONTH, 1);
+			}
+			
+			end = calendar.getTimeInMillis();
+		}
+		else
+		{
+			int days = periodHours / 24;
+			long day = (calendar.getTimeInMillis() + calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET)) / (24 * 60 * 60 * 1000L);
+			calendar.add(Calendar.DAY_OF_MONTH, -(int)(day % days));
+			start = calendar.getTimeInMillis();
+			calendar.add(Calendar.DAY_OF_MONTH, days);
+			end = calendar.getTimeInMillis();
+		}
+		
+		this.periodEnd = end;
+		
+		//still the period the leaderboard was loaded for
+		if(start == this.periodStart && periodHours == this.periodHours) return;
+		
+		this.periodHours = periodHours;
+		this.periodStart = start;
+		this.spentTotals.clear();
+		this.spent.clear();
+		this.dirty = true;
+	}
+	
+	//reads the file saved last time, if any
+	//file format: version, period hours, period start, then every spent total for the period and the points ranking, each as a count followed by names and values (points spent as longs, current points as ints)
+	//version 1 files numbered periods instead of giving their start, so their spent totals are from a period which is over by now
+	synchronized void load()
+	{
+		File file = new File(leaderboardFilePath);
+		if(!file.exists()) return;
+		
+		DataInputStream inStream = null;
+		try
+		{
+			inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			int version = inStream.readInt();
+			if(version != FILE_VERSION && version != 1) throw new IOException("unknown version " + version);
+			
+			this.periodHours = inStream.readInt();
+			long periodStart = inStream.readLong();
+			this.periodStart = version == 1 ? 0 : periodStart;
+			
+			int count = inStream.readInt();
+			for(int i = 0; i < count; i++)
+			{
+				Entry total = new Entry(inStream.readUTF(), 0);
+				this.spentTotals.put(total.playerName, total);
+				this.spent.set(total, inStream.readLong());
+			}
+			
+			this.points.read(inStream);
+		}
+		
+		//if there's any problem with the file's content, log an error message and start over
+		catch(Exception e)
+		{
+			AntiXRay.AddLogEntry("Unable to load the leaderboard from \"" + file.getPath() + "\": " + e.getMessage());
+			this.spentTotals.clear();
+			this.spent.clear();
+			this.points.clear();
+		}
+		
+		try
+		{
+			if(inStream != null) inStream.close();
+		}
+		catch(IOException exception) {}
+	}
+	
+	//if anything has changed, copies the spent totals and the points ranking (one entry per player spending this period, and a hundred) and hands them to the background writer, which does the rest
+	synchronized void save()
+	{
+		if(!this.dirty) return;
+		this.dirty = false;
+		
+		final int periodHours = this.periodHours;
+		final long periodStart = this.periodStart;
+		final List<Entry> spent = new ArrayList<Entry>(this.spentTotals.size());
+		for(Entry total : this.spentTotals.values())
+		{
+			spent.add(new Entry(total.playerName, total.value));
+		}
+		
+		final List<Entry> points = this.points.copy();
+		this.writer.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeFile(new File(leaderboardFilePath), periodHours, periodStart, spent, points);
+			}
+		});
+	}
+	
+	//a list of names and values in the file
+	private static void writeRanking(DataOutputStream outStream, List<Entry> entries, boolean longValues) throws IOException
+	{
+		outStream.writeInt(entries.size());
+		for(Entry entry : entries)
+		{
+			outStream.writeUTF(entry.playerName);
+			if(longValues) outStream.writeLong(entry.value);
+			else outStream.writeInt((int)entry.value);
+		}
+	}
+	
+	//writes the file under a temporary name, then renames it into place so a crash never leaves a truncated file
+	private static void writeFile(File file, int periodHours, long periodStart, List<Entry> spent, List<Entry> points)
+	{
+		File tempFile = new File(file.getPath() + ".tmp");
+		
+		FileOutputStream fileStream = null;
+		try
+		{
+			file.getParentFile().mkdirs();
+			fileStream = new FileOutputStream(tempFile);
+			DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+			outStream.writeInt(FILE_VERSION);
+			outStream.writeInt(periodHours);
+			outStream.writeLong(periodStart);
+			writeRanking(outStream, spent, true);
+			writeRanking(outStream, points, false);
+			outStream.flush();
+			fileStream.getFD().sync();
+			fileStream.close();
+			fileStream = null;
+			
+			try
+			{
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e)
+			{
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		
+		//if any problem, log it
+		catch(Exception e)
+		{
+			AntiXRay.AddLogEntry("Unexpected exception saving the leaderboard to \"" + file.getPath() + "\": " + e.getMessage());
+		}
+		
+		try
+		{
+			if(fileStream != null) fileStream.close();
+		}
+		catch(IOException exception) {}
+	}
+	
+	//saves any changes and waits for the write to finish.  called on shutdown
+	void close()
+	{
+		this.save();
+		
+		this.writer.shutdown();
+		try
+		{
+			this.writer.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,360 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+//keeps all player data in one file of fixed-size binary records, memory-mapped so loads and saves are just a few bytes read or written in place
+//an alternative to FlatFileDataStore for servers which have accumulated too many player files
+class MappedFileDataStore extends DataStore
+{
+	final static String playerDataFilePath = dataLayerFolderPath + File.separator + "PlayerData.dat";
+	
+	//file header: magic number, format version, record size, number of record slots
+	//the magic number is written last when a file is created, after the flat file import, so a file whose import was interrupted is recognized and built again
+	private final static int MAGIC = 0x41585244;  //"AXRD"
+	private final static int VERSION = 1;
+	private final static int HEADER_SIZE = 16;
+	
+	//record layout: in-use flag, name length, name bytes (UTF-8), points.  the rest of the record is reserved for future fields
+	private final static int RECORD_SIZE = 64;
+	private final static int MAX_NAME_BYTES = 48;
+	private final static int OFFSET_IN_USE = 0;
+	private final static int OFFSET_NAME_LENGTH = 1;
+	private final static int OFFSET_NAME = 2;
+	private final static int OFFSET_POINTS = OFFSET_NAME + MAX_NAME_BYTES;
+	
+	//how many slots a new file starts with.  the file doubles in size whenever it fills up
+	private final static int INITIAL_SLOTS = 1024;
+	
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+	
+	private RandomAccessFile file;
+	private MappedByteBuffer buffer;
+	private int slotCount;
+	
+	//which slot holds which player's record
+	private HashMap<String, Integer> playerNameToSlotMap = new HashMap<String, Integer>();
+	
+	//empty slots below the highest one in use, found when the file is opened, lowest first so the file stays compact.  every slot from nextFreeSlot on is free too
+	private TreeSet<Integer> freeSlots = new TreeSet<Integer>();
+	private int nextFreeSlot = 0;
+	
+	//whether anything has been written to the mapping since it was last forced to disk.  only touched while holding this store's lock
+	private boolean unforced = false;
+	
+	//forces the mapping to disk after each checkpoint, so the main thread doesn't wait on it
+	private ExecutorService forcer = Executors.newSingleThreadExecutor();
+	
+	MappedFileDataStore()
+	{
+		this.initialize();
+	}
+	
+	@Override
+	void initialize()
+	{
+		super.initialize();
+		
+		File dataFile = new File(playerDataFilePath);
+		boolean isNewFile = !dataFile.exists();
+		
+		try
+		{
+			dataFile.getParentFile().mkdirs();
+			this.file = new RandomAccessFile(dataFile, "rw");
+			
+			//a file without its magic number was being created when the server stopped.  throw it away and start again
+			if(!isNewFile && (this.file.length() < HEADER_SIZE || this.file.readInt() == 0))
+			{
+				AntiXRay.AddLogEntry("The player data file at \"" + playerDataFilePath + "\" wasn't finished being created.  Creating it again.");
+				this.file.setLength(0);
+				isNewFile = true;
+			}
+			
+			if(isNewFile)
+			{
+				this.map(INITIAL_SLOTS);
+				this.buffer.putInt(4, VERSION);
+				this.buffer.putInt(8, RECORD_SIZE);
+				this.buffer.putInt(12, INITIAL_SLOTS);
+				
+				//carry over anything saved by the flat file data store
+				this.importFlatFiles();
+				
+				//only now is the file complete
+				this.buffer.putInt(0, MAGIC);
+				this.buffer.force();
+			}
+			else
+			{
+				this.loadIndex();
+			}
+		}
+		catch(IOException e)
+		{
+			AntiXRay.AddLogEntry("Unable to open the player data file at \"" + playerDataFilePath + "\": " + e.getMessage());
+			
+			try
+			{
+				if(this.file != null) this.file.close();
+			}
+			catch(IOException exception) {}
+			
+			throw new RuntimeException(e);
+		}
+	}
+	
+	//maps (and if necessary, grows) the file to hold the specified number of record slots
+	private void map(int slots) throws IOException
+	{
+		this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)slots * RECORD_SIZE);
+		this.slotCount = slots;
+	}
+	
+	//reads the header and builds the in-memory index of names to slots, and the list of empty slots
+	private void loadIndex() throws IOException
+	{
+		this.file.seek(0);
+		int magic = this.file.readInt();
+		int version = this.file.readInt();
+		int recordSize = this.file.readInt();
+		int slots = this.file.readInt();
+		if(magic != MAGIC || version != VERSION || recordSize != RECORD_SIZE)
+		{
+			throw new IOException("Unrecognized player data file format.");
+		}
+		
+		this.map(slots);
+		
+		byte [] nameBytes = new byte[MAX_NAME_BYTES];
+		for(int slot = 0; slot < slots; slot++)
+		{
+			int position = HEADER_SIZE + slot * RECORD_SIZE;
+			if(this.buffer.get(position + OFFSET_IN_USE) == 0)
+			{
+				this.freeSlots.add(slot);
+				continue;
+			}
+			
+			this.nextFreeSlot = slot + 1;
+			
+			int nameLength = this.buffer.get(position + OFFSET_NAME_LENGTH) & 0xFF;
+			this.buffer.position(position + OFFSET_NAME);
+			this.buffer.get(nameBytes, 0, nameLength);
+			this.playerNameToSlotMap.put(new String(nameBytes, 0, nameLength, UTF8), slot);
+		}
+		
+		//the slots past the last one in use are counted by nextFreeSlot instead
+		this.freeSlots.tailSet(this.nextFreeSlot).clear();
+	}
+	
+	//one-time import of the per-player files written by FlatFileDataStore.  if the file can't be grown to hold them all, or a player's file can't be read, the import fails and is tried again next time
+	//(a bad file isn't skipped, because he'd then start over with defaults here.  meanwhile the server falls back to FlatFile, which turns just him away until his file is fixed)
+	private void importFlatFiles() throws IOException
+	{
+		File [] files = new File(FlatFileDataStore.playerDataFolderPath).listFiles();
+		if(files == null) return;
+		
+		AntiXRay.AddLogEntry("Importing " + files.length + " player data files into " + playerDataFilePath + "...");
+		
+		int imported = 0;
+		for(int i = 0; i < files.length; i++)
+		{
+			File playerFile = files[i];
+			String playerName = playerFile.getName();
+			if(!playerFile.isFile() || playerName.endsWith(FlatFileDataStore.tempFileSuffix)) continue;
+			
+			PlayerData playerData;
+			try
+			{
+				playerData = FlatFileDataStore.readPlayerFile(playerFile, playerName);
+			}
+			catch(IOException e)
+			{
+				throw new IOException("Unable to import \"" + playerFile.getPath() + "\".  Please fix or remove that file.", e);
+			}
+			
+			this.writeRecord(playerName, playerData);
+			imported++;
+		}
+		
+		this.buffer.force();
+		
+		AntiXRay.AddLogEntry("Imported " + imported + " players.  The old PlayerData folder is no longer used and may be removed.");
+	}
+	
+	@Override
+	synchronized PlayerData loadPlayerDataFromStorage(String playerName)
+	{
+		Integer slot = this.playerNameToSlotMap.get(playerName);
+		if(slot == null) return null;
+		
+		int position = HEADER_SIZE + slot * RECORD_SIZE;
+		
+		PlayerData playerData = new PlayerData();
+		playerData.setPoints(this.buffer.getInt(position + OFFSET_POINTS));
+		return playerData;
+	}
+	
+	@Override
+	synchronized void savePlayerData(String playerName, PlayerData playerData)
+	{
+		Metrics metrics = AntiXRay.instance.metrics;
+		long start = System.nanoTime();
+		try
+		{
+			this.writeRecord(playerName, playerData);
+			this.unforced = true;
+		}
+		catch(IOException e)
+		{
+			AntiXRay.AddLogEntry("Unexpected exception saving data for player \"" + playerName + "\": " + e.getMessage());
+			return;
+		}
+		
+		metrics.saveLatency.record(System.nanoTime() - start);
+		metrics.playersSaved.incrementAndGet();
+	}
+	
+	//writes one player's record into the mapping, claiming a slot for him if he's new
+	private void writeRecord(String playerName, PlayerData playerData) throws IOException
+	{
+		Integer slot = this.playerNameToSlotMap.get(playerName);
+		
+		//new player, so claim a slot for him
+		if(slot == null)
+		{
+			byte [] nameBytes = playerName.getBytes(UTF8);
+			if(nameBytes.length > MAX_NAME_BYTES)
+			{
+				AntiXRay.AddLogEntry("Unable to save data for player \"" + playerName + "\": name is too long.");
+				return;
+			}
+			
+			slot = this.claimSlot();
+			
+			int position = HEADER_SIZE + slot * RECORD_SIZE;
+			this.buffer.put(position + OFFSET_NAME_LENGTH, (byte)nameBytes.length);
+			this.buffer.position(position + OFFSET_NAME);
+			this.buffer.put(nameBytes);
+			this.buffer.put(position + OFFSET_IN_USE, (byte)1);
+			this.playerNameToSlotMap.put(playerName, slot);
+		}
+		
+		int position = HEADER_SIZE + slot * RECORD_SIZE;
+		this.buffer.putInt(position + OFFSET_POINTS, playerData.getPoints());
+	}
+	
+	//finds an unused slot, growing the file when there are none left
+	private int claimSlot() throws IOException
+	{
+		Integer freeSlot = this.freeSlots.pollFirst();
+		if(freeSlot != null) return freeSlot;
+		
+		if(this.nextFreeSlot == this.slotCount)
+		{
+			this.map(this.slotCount * 2);
+			this.buffer.putInt(12, this.slotCount);
+		}
+		
+		return this.nextFreeSlot++;
+	}
+	
+	@Override
+	void writePlayerDataBatch(Map<String, PlayerData> batch)
+	{
+		for(Map.Entry<String, PlayerData> entry : batch.entrySet())
+		{
+			this.savePlayerData(entry.getKey(), entry.getValue());
+		}
+		
+		this.force();
+	}
+	
+	//saves are written straight into the mapping, but only the operating system decides when that reaches the disk.  so after each checkpoint,
+	//whatever was written since the last one (the checkpoint's batch, and players saved as they quit) is forced out, which limits what a crash can lose
+	@Override
+	void checkpoint()
+	{
+		super.checkpoint();
+		
+		synchronized(this)
+		{
+			if(!this.unforced) return;
+			this.unforced = false;
+		}
+		
+		this.forcer.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				MappedFileDataStore.this.force();
+			}
+		});
+	}
+	
+	//makes sure everything written to the mapping so far is on disk
+	private void force()
+	{
+		MappedByteBuffer buffer;
+		synchronized(this)
+		{
+			this.unforced = false;
+			buffer = this.buffer;
+		}
+		
+		buffer.force();
+	}
+	
+	@Override
+	void close()
+	{
+		//without the lock, since a pending force needs it
+		this.forcer.shutdown();
+		try
+		{
+			this.forcer.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		synchronized(this)
+		{
+			//make sure everything written to the mapping is on disk
+			this.buffer.force();
+			
+			try
+			{
+				this.file.close();
+			}
+			catch(IOException exception) {}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.ArrayList;
+
+import org.bukkit.ChatColor;
+
+//a message from messages.yml, split up once at load time around its {0}, {1}... placeholders
+//filling it in is then a single pass appending pieces, instead of searching the whole text for each argument.  immutable apart from a cache of colored forms, so safe to use from any thread
+class MessageTemplate
+{
+	//the text between placeholders.  there's always one more of these than there are placeholders
+	private final String [] literals;
+	
+	//which argument goes in each placeholder
+	private final int [] argumentIndexes;
+	
+	//total length of the literals, for sizing the result
+	private final int literalLength;
+	
+	//the first literal with each color's code in front, filled in the first time each color is used.  a racing thread at worst builds the same string twice
+	private final String [] coloredHeads = new String[ChatColor.values().length];
+	
+	MessageTemplate(String text)
+	{
+		ArrayList<String> literals = new ArrayList<String>();
+		ArrayList<Integer> argumentIndexes = new ArrayList<Integer>();
+		
+		StringBuilder literal = new StringBuilder();
+		int length = text.length();
+		int i = 0;
+		while(i < length)
+		{
+			char c = text.charAt(i);
+			
+			//a placeholder is a brace, one or more digits, and a closing brace.  anything else is plain text
+			if(c == '{')
+			{
+				int end = i + 1;
+				while(end < length && end - i <= 9 && Character.isDigit(text.charAt(end))) end++;
+				if(end > i + 1 && end < length && text.charAt(end) == '}')
+				{
+					literals.add(literal.toString());
+					literal.setLength(0);
+					argumentIndexes.add(Integer.parseInt(text.substring(i + 1, end)));
+					i = end + 1;
+					continue;
+				}
+			}
+			
+			literal.append(c);
+			i++;
+		}
+		
+		literals.add(literal.toString());
+		
+		this.literals = literals.toArray(new String[literals.size()]);
+		this.argumentIndexes = new int[argumentIndexes.size()];
+		for(int j = 0; j < this.argumentIndexes.length; j++)
+		{
+			this.argumentIndexes[j] = argumentIndexes.get(j);
+		}
+		
+		int literalLength = 0;
+		for(String piece : this.literals) literalLength += piece.length();
+		this.literalLength = literalLength;
+	}
+	
+	//fills in the arguments, with a color code in front unless the color is null
+	//a placeholder without a matching argument is left as it was written
+	String format(ChatColor color, String... args)
+	{
+		String head = this.literals[0];
+		if(color != null)
+		{
+			head = this.coloredHeads[color.ordinal()];
+			if(head == null)
+			{
+				head = color + this.literals[0];
+				this.coloredHeads[color.ordinal()] = head;
+			}
+		}
+		
+		//messages without placeholders need no building at all
+		if(this.argumentIndexes.length == 0) return head;
+		
+		int capacity = head.length() + this.literalLength;
+		for(int i = 0; i < args.length; i++) capacity += args[i].length();
+		
+		StringBuilder message = new StringBuilder(capacity);
+		message.append(head);
+		for(int i = 0; i < this.argumentIndexes.length; i++)
+		{
+			int argumentIndex = this.argumentIndexes[i];
+			if(argumentIndex < args.length)
+			{
+				message.append(args[argumentIndex]);
+			}
+			else
+			{
+				message.append('{').append(argumentIndex).append('}');
+			}
+			
+			message.append(this.literals[i + 1]);
+		}
+		
+		return message.toString();
+	}
+}
@@ -20,5 +20,5 @@ package me.ryanhamshire.AntiXRay;
 
 public enum Messages
 {
-	CantBreakYet, AdminNotification
+	CantBreakYet, AdminNotification, NotificationsOn, NotificationsOff, NoPermission, SuspicionNotification, SuspectsHeader, SuspectLine, NoSuspects, SettingsReloaded, MaintenanceStarted, MaintenanceDone, MaintenanceFailed, MaintenanceBusy, MaintenanceNeedsFlatFile, SpentLeadersHeader, NoSpentLeaders, PointsLeadersHeader, NoPointsLeaders, LeaderLine, PlayerDataUnavailable
 }
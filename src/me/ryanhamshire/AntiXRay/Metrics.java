@@ -0,0 +1,125 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+//FEATURE: show server owners what this plugin costs them, and what it's doing
+
+//counters and timings for the plugin's hot paths.  everything here is atomic, because loads and saves happen off the main thread
+//cache hits and misses are counted by the cache itself, and only read here
+class Metrics
+{
+	//when counting started
+	private final long startTime = System.currentTimeMillis();
+	
+	//block breaks in enabled worlds, how many of those were protected blocks, and how many were stopped for lack of points
+	final AtomicLong blockBreaks = new AtomicLong();
+	final AtomicLong protectedBlockBreaks = new AtomicLong();
+	final AtomicLong blockBreaksDenied = new AtomicLong();
+	
+	//total points taken from players for breaking protected blocks
+	final AtomicLong pointsCharged = new AtomicLong();
+	
+	//protected blocks placed by players, which are remembered so they can be broken again for free
+	final AtomicLong blockPlacesTracked = new AtomicLong();
+	
+	//explosions in enabled worlds, and how many protected blocks were kept out of them
+	final AtomicLong explosions = new AtomicLong();
+	final AtomicLong explodedBlocksProtected = new AtomicLong();
+	
+	//players whose data was looked for in storage, and how many of those had none (new players)
+	final AtomicLong playersLoaded = new AtomicLong();
+	final AtomicLong playersNotFound = new AtomicLong();
+	
+	//players whose data was written to storage
+	final AtomicLong playersSaved = new AtomicLong();
+	
+	//time spent handling a block break, loading one player's data from storage, and writing to storage (one player for files, one batch for a database)
+	final LatencyHistogram blockBreakLatency = new LatencyHistogram();
+	final LatencyHistogram loadLatency = new LatencyHistogram();
+	final LatencyHistogram saveLatency = new LatencyHistogram();
+	
+	//describes everything counted so far, one line per subject, for the stats command and the text dump
+	List<String> toText(PlayerDataCache cache)
+	{
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add("AntiXRay stats for the last " + ((System.currentTimeMillis() - this.startTime) / 1000 / 60) + " minutes:");
+		lines.add("Block breaks: " + this.blockBreaks.get() + " (" + this.protectedBlockBreaks.get() + " protected, " + this.blockBreaksDenied.get() + " denied), " + this.pointsCharged.get() + " points charged.");
+		lines.add("Blocks placed and tracked: " + this.blockPlacesTracked.get() + ".  Explosions: " + this.explosions.get() + " (" + this.explodedBlocksProtected.get() + " blocks protected).");
+		lines.add("Player data cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses, " + cache.getEvictions() + " evictions, " + cache.getOnlineCount() + " online, " + cache.getOfflineCount() + " offline.");
+		lines.add("Storage: " + this.playersLoaded.get() + " loads (" + this.playersNotFound.get() + " new players), " + this.playersSaved.get() + " players saved.");
+		lines.add(describe("Block break handling", this.blockBreakLatency));
+		lines.add(describe("Player data loads", this.loadLatency));
+		lines.add(describe("Player data writes", this.saveLatency));
+		return lines;
+	}
+	
+	//the same information as a JSON object, for the periodic dump
+	String toJson(PlayerDataCache cache)
+	{
+		StringBuilder json = new StringBuilder();
+		json.append('{');
+		json.append("\"startTime\":").append(this.startTime);
+		json.append(",\"time\":").append(System.currentTimeMillis());
+		json.append(",\"blockBreaks\":").append(this.blockBreaks.get());
+		json.append(",\"protectedBlockBreaks\":").append(this.protectedBlockBreaks.get());
+		json.append(",\"blockBreaksDenied\":").append(this.blockBreaksDenied.get());
+		json.append(",\"pointsCharged\":").append(this.pointsCharged.get());
+		json.append(",\"blockPlacesTracked\":").append(this.blockPlacesTracked.get());
+		json.append(",\"explosions\":").append(this.explosions.get());
+		json.append(",\"explodedBlocksProtected\":").append(this.explodedBlocksProtected.get());
+		json.append(",\"cacheHits\":").append(cache.getHits());
+		json.append(",\"cacheMisses\":").append(cache.getMisses());
+		json.append(",\"cacheEvictions\":").append(cache.getEvictions());
+		json.append(",\"cachedOnline\":").append(cache.getOnlineCount());
+		json.append(",\"cachedOffline\":").append(cache.getOfflineCount());
+		json.append(",\"playersLoaded\":").append(this.playersLoaded.get());
+		json.append(",\"playersNotFound\":").append(this.playersNotFound.get());
+		json.append(",\"playersSaved\":").append(this.playersSaved.get());
+		appendJson(json, "blockBreakLatency", this.blockBreakLatency);
+		appendJson(json, "loadLatency", this.loadLatency);
+		appendJson(json, "saveLatency", this.saveLatency);
+		json.append('}');
+		return json.toString();
+	}
+	
+	private static String describe(String subject, LatencyHistogram histogram)
+	{
+		return subject + ": " + histogram.getCount() + ", mean " + microseconds(histogram.getMeanNanoseconds()) + ", 99% under " + microseconds(histogram.getPercentileNanoseconds(99)) + ", max " + microseconds(histogram.getMaxNanoseconds()) + ".";
+	}
+	
+	private static String microseconds(long nanoseconds)
+	{
+		return (nanoseconds / 1000) + "us";
+	}
+	
+	private static void appendJson(StringBuilder json, String name, LatencyHistogram histogram)
+	{
+		json.append(",\"").append(name).append("\":{");
+		json.append("\"count\":").append(histogram.getCount());
+		json.append(",\"meanNanoseconds\":").append(histogram.getMeanNanoseconds());
+		json.append(",\"p50Nanoseconds\":").append(histogram.getPercentileNanoseconds(50));
+		json.append(",\"p99Nanoseconds\":").append(histogram.getPercentileNanoseconds(99));
+		json.append(",\"maxNanoseconds\":").append(histogram.getMaxNanoseconds());
+		json.append('}');
+	}
+}
@@ -0,0 +1,80 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+//runs regularly off the main thread, writes the current metrics to a text file and a JSON file for external tools to collect
+//each dump replaces the last one, so the files always hold the totals since the server started
+class MetricsDumpTask implements Runnable
+{
+	final static String textFilePath = DataStore.dataLayerFolderPath + File.separator + "metrics.txt";
+	final static String jsonFilePath = DataStore.dataLayerFolderPath + File.separator + "metrics.json";
+	
+	@Override
+	public void run()
+	{
+		Metrics metrics = AntiXRay.instance.metrics;
+		PlayerDataCache cache = AntiXRay.instance.dataStore.playerDataCache;
+		
+		try
+		{
+			List<String> lines = metrics.toText(cache);
+			StringBuilder text = new StringBuilder();
+			for(String line : lines)
+			{
+				text.append(line).append(System.getProperty("line.separator"));
+			}
+			
+			writeFile(textFilePath, text.toString());
+			writeFile(jsonFilePath, metrics.toJson(cache));
+		}
+		catch(IOException e)
+		{
+			AntiXRay.AddLogEntry("Unable to write metrics: " + e.getMessage());
+		}
+	}
+	
+	//writes to a temporary file which then replaces the real one, so readers never see a half-written file
+	private static void writeFile(String path, String contents) throws IOException
+	{
+		File file = new File(path);
+		File tempFile = new File(path + FlatFileDataStore.tempFileSuffix);
+		
+		BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile));
+		try
+		{
+			writer.write(contents);
+		}
+		finally
+		{
+			writer.close();
+		}
+		
+		if(!tempFile.renameTo(file))
+		{
+			file.delete();
+			if(!tempFile.renameTo(file)) throw new IOException("couldn't replace " + path);
+		}
+	}
+}
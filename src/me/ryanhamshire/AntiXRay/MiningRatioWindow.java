@@ -0,0 +1,112 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+//FEATURE: tell moderators whose mining looks like xray use, by how many of the blocks he breaks are valuable
+
+//counts the protected and ordinary blocks a player has broken recently, in a sliding window of one-minute buckets
+//the totals are kept up to date as blocks are recorded and buckets expire, so the score never requires looking back through history
+class MiningRatioWindow
+{
+	//the window is this many buckets of this many milliseconds each
+	final static int BUCKETS = 10;
+	final static long BUCKET_MILLISECONDS = 1000L * 60;
+	
+	//how many ordinary blocks a player is assumed to have broken on top of what was counted, so a couple of lucky ores in his first minute don't look suspicious
+	final static int PRIOR_BLOCKS = 20;
+	
+	private int [] protectedCounts = new int[BUCKETS];
+	private int [] ordinaryCounts = new int[BUCKETS];
+	
+	//which bucket is current, as a count of bucket-lengths since the epoch
+	private long currentBucket = 0;
+	
+	//totals over the whole window
+	private int protectedTotal = 0;
+	private int ordinaryTotal = 0;
+	
+	//counts one broken block
+	void record(boolean isProtected, long now)
+	{
+		this.advance(now);
+		
+		int index = (int)(this.currentBucket % BUCKETS);
+		if(isProtected)
+		{
+			this.protectedCounts[index]++;
+			this.protectedTotal++;
+		}
+		else
+		{
+			this.ordinaryCounts[index]++;
+			this.ordinaryTotal++;
+		}
+	}
+	
+	//the share of recently broken blocks which were protected, in tenths of a percent, discounted for players who haven't broken many blocks yet
+	int getScore(long now)
+	{
+		this.advance(now);
+		return (int)(this.protectedTotal * 1000L / (this.protectedTotal + this.ordinaryTotal + PRIOR_BLOCKS));
+	}
+	
+	int getProtectedTotal(long now)
+	{
+		this.advance(now);
+		return this.protectedTotal;
+	}
+	
+	int getBlockTotal(long now)
+	{
+		this.advance(now);
+		return this.protectedTotal + this.ordinaryTotal;
+	}
+	
+	//moves the window forward to the current time, dropping buckets which have fallen out of it
+	private void advance(long now)
+	{
+		long bucket = now / BUCKET_MILLISECONDS;
+		if(bucket == this.currentBucket) return;
+		
+		//after a long break, everything has expired
+		if(bucket - this.currentBucket >= BUCKETS)
+		{
+			for(int i = 0; i < BUCKETS; i++)
+			{
+				this.protectedCounts[i] = 0;
+				this.ordinaryCounts[i] = 0;
+			}
+			
+			this.protectedTotal = 0;
+			this.ordinaryTotal = 0;
+			this.currentBucket = bucket;
+			return;
+		}
+		
+		while(this.currentBucket < bucket)
+		{
+			this.currentBucket++;
+			int index = (int)(this.currentBucket % BUCKETS);
+			this.protectedTotal -= this.protectedCounts[index];
+			this.ordinaryTotal -= this.ordinaryCounts[index];
+			this.protectedCounts[index] = 0;
+			this.ordinaryCounts[index] = 0;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.bukkit.entity.Player;
+
+//the online moderators who receive notifications about players reaching their mining limit
+//kept up to date as players join, quit and have their permissions refreshed, so a notification only visits the players who receive it
+//only used from the main thread
+class ModeratorRegistry
+{
+	//online players with the monitor permission who haven't turned notifications off
+	private ArrayList<Player> subscribers = new ArrayList<Player>();
+	
+	//names of moderators who have turned notifications off.  remembered until the server restarts, so relogging doesn't turn them back on
+	private HashSet<String> unsubscribedNames = new HashSet<String>();
+	
+	//adds or removes a player, depending on whether he has the monitor permission
+	void refresh(Player player)
+	{
+		boolean subscribe = player.hasPermission("antixray.monitorxrayers") && !this.unsubscribedNames.contains(player.getName());
+		boolean subscribed = this.subscribers.contains(player);
+		
+		if(subscribe && !subscribed)
+		{
+			this.subscribers.add(player);
+		}
+		else if(!subscribe && subscribed)
+		{
+			this.subscribers.remove(player);
+		}
+	}
+	
+	//removes a player who's leaving
+	void remove(Player player)
+	{
+		this.subscribers.remove(player);
+	}
+	
+	//turns notifications on or off for a moderator.  returns whether they're now on
+	boolean toggle(Player player)
+	{
+		String playerName = player.getName();
+		if(!this.unsubscribedNames.remove(playerName))
+		{
+			this.unsubscribedNames.add(playerName);
+		}
+		
+		this.refresh(player);
+		return !this.unsubscribedNames.contains(playerName);
+	}
+	
+	//sends a notification to every subscribed moderator.  the messages go out on the next tick, so the event which caused them isn't held up
+	void notify(final Messages messageID, final String... args)
+	{
+		if(this.subscribers.isEmpty()) return;
+		
+		final Player [] recipients = this.subscribers.toArray(new Player[this.subscribers.size()]);
+		AntiXRay.instance.getServer().getScheduler().scheduleSyncDelayedTask(AntiXRay.instance, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				//built once, color and all, for everyone
+				String message = AntiXRay.instance.dataStore.getMessage(messageID, TextMode.Instr, args);
+				for(int i = 0; i < recipients.length; i++)
+				{
+					recipients[i].sendMessage(message);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,114 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+//a set of block positions within one chunk, each packed into an int.  open addressing, so adding and checking a block never allocates
+class PackedBlockSet
+{
+	//slots hold packed positions plus one, so zero can mean empty
+	private int [] slots = new int[8];
+	private int size = 0;
+	
+	//packs a block's position within its chunk: 4 bits each for x and z, 12 bits for y
+	static int pack(int x, int y, int z)
+	{
+		return (x & 15) | ((z & 15) << 4) | ((y & 0xFFF) << 8);
+	}
+	
+	int size()
+	{
+		return this.size;
+	}
+	
+	boolean contains(int packed)
+	{
+		return this.slots[this.find(packed + 1)] != 0;
+	}
+	
+	//returns false if it was already there
+	boolean add(int packed)
+	{
+		int index = this.find(packed + 1);
+		if(this.slots[index] != 0) return false;
+		
+		this.slots[index] = packed + 1;
+		this.size++;
+		
+		//keep the table at most half full
+		if(this.size * 2 > this.slots.length) this.resize(this.slots.length * 2);
+		return true;
+	}
+	
+	//returns false if it wasn't there
+	boolean remove(int packed)
+	{
+		int index = this.find(packed + 1);
+		if(this.slots[index] == 0) return false;
+		
+		this.slots[index] = 0;
+		this.size--;
+		
+		//re-insert everything after it in the same run, so later lookups don't stop at the gap
+		int mask = this.slots.length - 1;
+		for(int i = (index + 1) & mask; this.slots[i] != 0; i = (i + 1) & mask)
+		{
+			int value = this.slots[i];
+			this.slots[i] = 0;
+			this.slots[this.find(value)] = value;
+		}
+		
+		return true;
+	}
+	
+	//copies the packed positions out, for saving
+	int [] toArray()
+	{
+		int [] values = new int[this.size];
+		int count = 0;
+		for(int i = 0; i < this.slots.length; i++)
+		{
+			if(this.slots[i] != 0) values[count++] = this.slots[i] - 1;
+		}
+		
+		return values;
+	}
+	
+	//finds the slot holding a value, or the empty slot where it would go
+	private int find(int value)
+	{
+		int mask = this.slots.length - 1;
+		int index = (value * 0x9E3779B9) >>> 12 & mask;
+		while(this.slots[index] != 0 && this.slots[index] != value)
+		{
+			index = (index + 1) & mask;
+		}
+		
+		return index;
+	}
+	
+	private void resize(int length)
+	{
+		int [] oldSlots = this.slots;
+		this.slots = new int[length];
+		for(int i = 0; i < oldSlots.length; i++)
+		{
+			if(oldSlots[i] != 0) this.slots[this.find(oldSlots[i])] = oldSlots[i];
+		}
+	}
+}
@@ -0,0 +1,458 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+//remembers every protected block placed by a player, in every enabled world, so that nobody is charged for mining ore which didn't occur naturally
+//blocks are kept per chunk, in regions of 32x32 chunks.  a region is read from its own small file when its first chunk loads, and written back when its last chunk unloads
+//only used from the main thread, except for the actual file reading and writing
+class PlacedBlockRegistry
+{
+	final static String placedBlocksFolderPath = DataStore.dataLayerFolderPath + File.separator + "PlacedBlocks";
+	
+	//one region's placed blocks
+	private static class Region
+	{
+		//one set per chunk in the region, null where nothing's been placed
+		PackedBlockSet [] chunks = new PackedBlockSet[32 * 32];
+		
+		//how many of this region's chunks are loaded.  when none are left, the region is saved and dropped
+		int loadedChunks = 0;
+		
+		//whether there are changes which haven't been saved
+		boolean dirty = false;
+		
+		//the background read filling in chunks, until the main thread has waited for it to finish
+		Future<?> reading = null;
+	}
+	
+	//regions by packed coordinates.  open addressing on the primitive keys, like PackedBlockSet, so finding a region never allocates
+	private static class RegionMap
+	{
+		long [] keys = new long[16];
+		
+		//null where a slot is empty
+		Region [] regions = new Region[16];
+		
+		private int size = 0;
+		
+		Region get(long key)
+		{
+			return this.regions[this.find(key)];
+		}
+		
+		void put(long key, Region region)
+		{
+			int index = this.find(key);
+			if(this.regions[index] == null) this.size++;
+			this.keys[index] = key;
+			this.regions[index] = region;
+			
+			//keep the table at most half full
+			if(this.size * 2 > this.regions.length) this.resize(this.regions.length * 2);
+		}
+		
+		void remove(long key)
+		{
+			int index = this.find(key);
+			if(this.regions[index] == null) return;
+			
+			this.regions[index] = null;
+			this.size--;
+			
+			//re-insert everything after it in the same run, so later lookups don't stop at the gap
+			int mask = this.regions.length - 1;
+			for(int i = (index + 1) & mask; this.regions[i] != null; i = (i + 1) & mask)
+			{
+				Region region = this.regions[i];
+				this.regions[i] = null;
+				int newIndex = this.find(this.keys[i]);
+				this.keys[newIndex] = this.keys[i];
+				this.regions[newIndex] = region;
+			}
+		}
+		
+		//finds the slot holding a key, or the empty slot where it would go
+		private int find(long key)
+		{
+			int mask = this.regions.length - 1;
+			int index = (int)((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+			while(this.regions[index] != null && this.keys[index] != key)
+			{
+				index = (index + 1) & mask;
+			}
+			
+			return index;
+		}
+		
+		private void resize(int length)
+		{
+			long [] oldKeys = this.keys;
+			Region [] oldRegions = this.regions;
+			this.keys = new long[length];
+			this.regions = new Region[length];
+			for(int i = 0; i < oldRegions.length; i++)
+			{
+				if(oldRegions[i] == null) continue;
+				
+				int index = this.find(oldKeys[i]);
+				this.keys[index] = oldKeys[i];
+				this.regions[index] = oldRegions[i];
+			}
+		}
+	}
+	
+	//regions in memory, by world ID, then by region coordinates
+	private HashMap<UUID, RegionMap> regionsByWorld = new HashMap<UUID, RegionMap>();
+	
+	//reads and writes region files in the background.  one thread, so a region read always sees any write of that region queued before it,
+	//even when the region was dropped and its chunks loaded again before the write finished
+	private ExecutorService fileThread = Executors.newSingleThreadExecutor();
+	
+	//packs region (or chunk) coordinates into a map key
+	private static long key(int x, int z)
+	{
+		return ((long)x << 32) | (z & 0xFFFFFFFFL);
+	}
+	
+	//whether a player placed the block at this position
+	boolean contains(World world, int x, int y, int z)
+	{
+		PackedBlockSet chunk = this.getChunk(world, x, z);
+		return chunk != null && chunk.contains(PackedBlockSet.pack(x, y, z));
+	}
+	
+	//remembers that a player placed the block at this position
+	void add(World world, int x, int y, int z)
+	{
+		Region region = this.getRegion(world, x >> 9, z >> 9);
+		int chunkIndex = ((x >> 4) & 31) + ((z >> 4) & 31) * 32;
+		PackedBlockSet chunk = region.chunks[chunkIndex];
+		if(chunk == null)
+		{
+			chunk = new PackedBlockSet();
+			region.chunks[chunkIndex] = chunk;
+		}
+		
+		if(chunk.add(PackedBlockSet.pack(x, y, z))) region.dirty = true;
+	}
+	
+	//forgets the block at this position (it's been broken).  returns whether a player had placed it
+	boolean remove(World world, int x, int y, int z)
+	{
+		PackedBlockSet chunk = this.getChunk(world, x, z);
+		if(chunk == null || !chunk.remove(PackedBlockSet.pack(x, y, z))) return false;
+		
+		this.getRegion(world, x >> 9, z >> 9).dirty = true;
+		return true;
+	}
+	
+	//finds the set for the chunk containing a block position, or null if nothing's been placed in that chunk
+	private PackedBlockSet getChunk(World world, int x, int z)
+	{
+		Region region = this.getRegion(world, x >> 9, z >> 9);
+		return region.chunks[((x >> 4) & 31) + ((z >> 4) & 31) * 32];
+	}
+	
+	//finds a region in memory, reading it from disk if it isn't there yet.  waits for the read to finish if it hasn't already
+	private Region getRegion(World world, int regionX, int regionZ)
+	{
+		Region region = this.findRegion(world, regionX, regionZ);
+		if(region.reading != null) this.finishReading(region);
+		return region;
+	}
+	
+	//finds a region in memory, starting to read it from disk if it isn't there yet
+	private Region findRegion(World world, int regionX, int regionZ)
+	{
+		RegionMap regions = this.regionsByWorld.get(world.getUID());
+		if(regions == null)
+		{
+			regions = new RegionMap();
+			this.regionsByWorld.put(world.getUID(), regions);
+		}
+		
+		long regionKey = key(regionX, regionZ);
+		Region region = regions.get(regionKey);
+		if(region == null)
+		{
+			region = this.startReading(world, regionX, regionZ);
+			regions.put(regionKey, region);
+		}
+		
+		return region;
+	}
+	
+	//called when a chunk loads, including chunks already loaded when the plugin starts.  the region's file is read in the background,
+	//so it's usually ready by the time a player breaks or places a protected block there
+	void chunkLoaded(Chunk chunk)
+	{
+		this.findRegion(chunk.getWorld(), chunk.getX() >> 5, chunk.getZ() >> 5).loadedChunks++;
+	}
+	
+	//called when a chunk unloads.  when the last chunk in a region unloads, the region is saved (if it's changed) and dropped from memory
+	void chunkUnloaded(Chunk chunk)
+	{
+		World world = chunk.getWorld();
+		RegionMap regions = this.regionsByWorld.get(world.getUID());
+		if(regions == null) return;
+		
+		int regionX = chunk.getX() >> 5;
+		int regionZ = chunk.getZ() >> 5;
+		long regionKey = key(regionX, regionZ);
+		Region region = regions.get(regionKey);
+		if(region == null) return;
+		
+		//a region can only have changes once its read has finished, so one still being read has nothing to save
+		if(--region.loadedChunks <= 0)
+		{
+			if(region.dirty) this.saveRegion(world, regionX, regionZ, region);
+			regions.remove(regionKey);
+		}
+	}
+	
+	//saves every changed region in a world, for example when the world saves.  if the world is unloading, drops them from memory too
+	void saveWorld(World world, boolean unloading)
+	{
+		RegionMap regions = this.regionsByWorld.get(world.getUID());
+		if(regions == null) return;
+		
+		for(int i = 0; i < regions.regions.length; i++)
+		{
+			Region region = regions.regions[i];
+			if(region == null || !region.dirty) continue;
+			
+			long regionKey = regions.keys[i];
+			this.saveRegion(world, (int)(regionKey >> 32), (int)regionKey, region);
+		}
+		
+		if(unloading) this.regionsByWorld.remove(world.getUID());
+	}
+	
+	//saves everything and waits for the writes to finish.  called on shutdown
+	void close(List<World> worlds)
+	{
+		for(int i = 0; i < worlds.size(); i++)
+		{
+			this.saveWorld(worlds.get(i), true);
+		}
+		
+		this.fileThread.shutdown();
+		try
+		{
+			this.fileThread.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static File getRegionFile(World world, int regionX, int regionZ)
+	{
+		return new File(placedBlocksFolderPath + File.separator + world.getName() + File.separator + "r." + regionX + "." + regionZ + ".dat");
+	}
+	
+	//creates an empty region and queues the read of its file, which fills it in
+	private Region startReading(World world, int regionX, int regionZ)
+	{
+		final Region region = new Region();
+		final File regionFile = getRegionFile(world, regionX, regionZ);
+		
+		region.reading = this.fileThread.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				readRegionFile(regionFile, region);
+			}
+		});
+		
+		return region;
+	}
+	
+	//waits for a region's read to finish, before its blocks are first used
+	private void finishReading(Region region)
+	{
+		boolean interrupted = false;
+		while(true)
+		{
+			try
+			{
+				region.reading.get();
+				break;
+			}
+			
+			//the read has to finish before the region can be used, so keep waiting and pass the interruption on afterwards
+			catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+			
+			//readRegionFile() logs its own problems
+			catch(ExecutionException e)
+			{
+				break;
+			}
+		}
+		
+		region.reading = null;
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+	
+	//reads a region file into a region, on the file thread.  region files only exist where players have placed protected blocks, so usually there's nothing to read
+	//file format: number of chunks, then for each chunk its index in the region, how many blocks, and the blocks' packed positions
+	private static void readRegionFile(File regionFile, Region region)
+	{
+		if(!regionFile.exists()) return;
+		
+		DataInputStream inStream = null;
+		try
+		{
+			inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(regionFile)));
+			int chunkCount = inStream.readInt();
+			for(int i = 0; i < chunkCount; i++)
+			{
+				int chunkIndex = inStream.readInt();
+				int blockCount = inStream.readInt();
+				PackedBlockSet chunk = new PackedBlockSet();
+				for(int j = 0; j < blockCount; j++)
+				{
+					chunk.add(inStream.readInt());
+				}
+				
+				region.chunks[chunkIndex] = chunk;
+			}
+		}
+		
+		//if there's any problem with the file's content, log an error message
+		catch(Exception e)
+		{
+			AntiXRay.AddLogEntry("Unable to load placed blocks from \"" + regionFile.getPath() + "\": " + e.getMessage());
+		}
+		
+		try
+		{
+			if(inStream != null) inStream.close();
+		}
+		catch(IOException exception) {}
+	}
+	
+	//copies a region's blocks and hands them to the background writer
+	private void saveRegion(World world, int regionX, int regionZ, Region region)
+	{
+		final File regionFile = getRegionFile(world, regionX, regionZ);
+		
+		final ArrayList<Integer> chunkIndexes = new ArrayList<Integer>();
+		final ArrayList<int []> chunkBlocks = new ArrayList<int []>();
+		for(int i = 0; i < region.chunks.length; i++)
+		{
+			PackedBlockSet chunk = region.chunks[i];
+			if(chunk == null || chunk.size() == 0) continue;
+			
+			chunkIndexes.add(i);
+			chunkBlocks.add(chunk.toArray());
+		}
+		
+		region.dirty = false;
+		
+		this.fileThread.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeRegionFile(regionFile, chunkIndexes, chunkBlocks);
+			}
+		});
+	}
+	
+	//writes a region file under a temporary name, then renames it into place so a crash never leaves a truncated file
+	//an empty region just has its file deleted
+	private static void writeRegionFile(File regionFile, ArrayList<Integer> chunkIndexes, ArrayList<int []> chunkBlocks)
+	{
+		if(chunkIndexes.isEmpty())
+		{
+			regionFile.delete();
+			return;
+		}
+		
+		File tempFile = new File(regionFile.getPath() + ".tmp");
+		
+		FileOutputStream fileStream = null;
+		try
+		{
+			regionFile.getParentFile().mkdirs();
+			fileStream = new FileOutputStream(tempFile);
+			DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+			outStream.writeInt(chunkIndexes.size());
+			for(int i = 0; i < chunkIndexes.size(); i++)
+			{
+				int [] blocks = chunkBlocks.get(i);
+				outStream.writeInt(chunkIndexes.get(i));
+				outStream.writeInt(blocks.length);
+				for(int j = 0; j < blocks.length; j++)
+				{
+					outStream.writeInt(blocks[j]);
+				}
+			}
+			
+			outStream.flush();
+			fileStream.getFD().sync();
+			fileStream.close();
+			fileStream = null;
+			
+			try
+			{
+				Files.move(tempFile.toPath(), regionFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e)
+			{
+				Files.move(tempFile.toPath(), regionFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		
+		//if any problem, log it
+		catch(Exception e)
+		{
+			AntiXRay.AddLogEntry("Unexpected exception saving placed blocks to \"" + regionFile.getPath() + "\": " + e.getMessage());
+		}
+		
+		try
+		{
+			if(fileStream != null) fileStream.close();
+		}
+		catch(IOException exception) {}
+	}
+}
@@ -18,20 +18,107 @@
 
 package me.ryanhamshire.AntiXRay;
 
-import org.bukkit.Location;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 //holds all of AntiXray's player-tied data
 public class PlayerData 
 {
 	//a player's "ore score", which determines whether or not he can break a specific block type
-	public int points = AntiXRay.instance.config_startingPoints;
+	//changed from the main thread and, through the points service, from any other thread, so only through the methods below
+	private volatile int points = AntiXRay.instance.config.startingPoints;
+	private static final AtomicIntegerFieldUpdater<PlayerData> pointsUpdater = AtomicIntegerFieldUpdater.newUpdater(PlayerData.class, "points");
 	
-	//where this player was the last time we checked on him for earning points
-	public Location lastAfkCheckLocation = null;
+	//whether this player's saved fields have changed since they were last saved.  the checkpoint task only saves players with changes
+	//the checkpoint clears this before copying the points, so a change made in between is either in the copy or marks him dirty again
+	public volatile boolean dirty = false;
+	
+	//where this player was the last time we checked on him for earning points.  kept as plain numbers so the check doesn't allocate
+	public UUID lastAfkCheckWorldID = null;
+	public double lastAfkCheckX, lastAfkCheckY, lastAfkCheckZ;
+	
+	//which tick of DeliverPointsTask's period this player is visited on, or -1 if he isn't being visited
+	int deliverPointsPhase = -1;
+	
+	//when earning points on demand: when the current 5 minute period started, whether this player has been active in it yet,
+	//and how much time (in milliseconds) from earlier periods he was active in hasn't been turned into points yet
+	long activityPeriodStart = 0;
+	boolean activeThisPeriod = false;
+	long unsettledActiveTime = 0;
+	
+	//whether this player is exempt from the rules (bypass permission, or creative mode when that's exempt).  worked out ahead of time, so block events don't have to check permissions
+	//refreshed when he joins, changes game mode or world, and every so often in case his permissions change
+	public boolean exempt = false;
 	
 	//whether or not this player has reached his mining limit this play session
 	public boolean reachedLimitThisSession = false;
 	
-	//the location of the last block placed, to allow for breaking a block just now placed without spending ore score
-	public Location lastPlacedBlockLocation = null;
+	//when this player was last told he can't break a block yet, so a fast miner isn't sent the same long message for every block
+	long lastCantBreakYetMessageTime = 0;
+	
+	//how many of the blocks this player has broken recently were valuable, for spotting xray use.  created when he first breaks a block, so offline players and saved copies don't carry one
+	private MiningRatioWindow miningRatio = null;
+	
+	//whether moderators have been notified about this player's mining ratio this play session
+	public boolean reachedSuspicionThisSession = false;
+	
+	//the name this player's data is saved under.  set by PlayerDataCache, which keys players by UUID, and only touched while holding its lock
+	String playerName = null;
+	
+	//set on the stand-in handed out when this player's data couldn't be loaded.  it's never cached or saved, so it can't overwrite his real data
+	boolean unavailable = false;
+
+	
+	public int getPoints()
+	{
+		return this.points;
+	}
+	
+	//like every other field here, callers mark the player dirty when the change needs saving
+	public void setPoints(int points)
+	{
+		this.points = points;
+	}
+	
+	//gives points, up to a maximum, and returns the new total.  a player already above the maximum is brought down to it
+	public int addPoints(int amount, int maxPoints)
+	{
+		while(true)
+		{
+			int current = this.points;
+			int updated = (int)Math.max(Integer.MIN_VALUE, Math.min((long)current + amount, maxPoints));
+			if(pointsUpdater.compareAndSet(this, current, updated)) return updated;
+		}
+	}
+	
+	//changes points only if they're still what the caller last saw, so a change made meanwhile from another thread isn't lost.  returns whether they were changed
+	boolean compareAndSetPoints(int expected, int points)
+	{
+		return pointsUpdater.compareAndSet(this, expected, points);
+	}
+	
+	//takes points only if he has at least that many, all in one step so two threads can't both spend the same points
+	public boolean tryCharge(int cost)
+	{
+		while(true)
+		{
+			int current = this.points;
+			if(current < cost) return false;
+			if(pointsUpdater.compareAndSet(this, current, current - cost)) return true;
+		}
+	}
+	
+	MiningRatioWindow getMiningRatio()
+	{
+		if(this.miningRatio == null) this.miningRatio = new MiningRatioWindow();
+		return this.miningRatio;
+	}
+	
+	//copies the fields which are saved to storage, so the copy can be written later without racing with changes to this one
+	PlayerData snapshot()
+	{
+		PlayerData snapshot = new PlayerData();
+		snapshot.points = this.points;
+		return snapshot;
+	}
 }
\ No newline at end of file
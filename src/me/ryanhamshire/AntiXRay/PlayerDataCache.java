@@ -0,0 +1,346 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.ryanhamshire.AntiXRay;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+//in-memory cache for player data, safe to use from any thread
+//online players' data stays in memory until they quit.  everyone else's (prefetched logins, offline lookups) is kept in a bounded least-recently-used list
+//keyed by UUID, so a player who's been renamed still has only one entry, with one set of points and changes.  storage is keyed by name, so each entry
+//remembers the name its data is saved under (PlayerData.playerName), which follows the player when he logs in under a new one
+//the points service and maintenance only have names to go by, so there's an index of names too.  data they load for a player who isn't cached
+//is kept under the UUID an offline-mode server would give him, until he logs in and it's moved under his real one
+class PlayerDataCache
+{
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+	
+	//the data store, for saving changes to offline players' data when it's evicted
+	private DataStore dataStore;
+	
+	//most offline players kept in memory
+	private int offlineCapacity;
+	
+	//online players' data, by UUID.  read without locking, since block events look here
+	private ConcurrentHashMap<UUID, PlayerData> onlinePlayers = new ConcurrentHashMap<UUID, PlayerData>();
+	
+	//everyone else's data, by UUID, least recently used first.  only touched while holding this cache's lock
+	private LinkedHashMap<UUID, PlayerData> offlinePlayers;
+	
+	//offline players pushed out of the list whose changes haven't been handed to the data store yet.  they're saved after the lock is released,
+	//since a save can wait on a full write queue.  until then they're still found here, so nobody reads an older copy from storage.  only touched while holding the lock
+	private HashMap<UUID, PlayerData> evictedPlayers = new HashMap<UUID, PlayerData>();
+	
+	//which entry each cached name belongs to, for lookups by name.  only touched while holding the lock
+	private HashMap<String, UUID> idsByName = new HashMap<String, UUID>();
+	
+	//the entry the last insertion into offlinePlayers pushed out, if any.  only touched while holding the lock
+	private UUID lastEvictedID = null;
+	private PlayerData lastEvictedData = null;
+	
+	//statistics
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong evictions = new AtomicLong();
+	
+	PlayerDataCache(DataStore dataStore, int offlineCapacity)
+	{
+		this.dataStore = dataStore;
+		this.offlineCapacity = offlineCapacity;
+		
+		//access order, so the eldest entry is always the least recently used
+		this.offlinePlayers = new LinkedHashMap<UUID, PlayerData>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UUID, PlayerData> eldest)
+			{
+				if(this.size() <= PlayerDataCache.this.offlineCapacity) return false;
+				
+				PlayerDataCache.this.lastEvictedID = eldest.getKey();
+				PlayerDataCache.this.lastEvictedData = eldest.getValue();
+				PlayerDataCache.this.evictedPlayers.put(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+	}
+	
+	//the UUID an offline-mode server gives a player.  data loaded by name alone is kept under it
+	static UUID nameOnlyID(String playerName)
+	{
+		return UUID.nameUUIDFromBytes(("OfflinePlayer:" + playerName).getBytes(UTF8));
+	}
+	
+	//looks for an online player's data
+	PlayerData getOnline(UUID playerID)
+	{
+		PlayerData playerData = this.onlinePlayers.get(playerID);
+		if(playerData != null) this.hits.incrementAndGet();
+		return playerData;
+	}
+	
+	//looks for a player's data by name, whether he's online or not
+	synchronized PlayerData getByName(String playerName)
+	{
+		PlayerData playerData = this.find(playerName);
+		
+		if(playerData != null) this.hits.incrementAndGet();
+		else this.misses.incrementAndGet();
+		
+		return playerData;
+	}
+	
+	//like getByName(), but without counting towards the statistics.  for maintenance, which looks at every player
+	synchronized PlayerData find(String playerName)
+	{
+		UUID playerID = this.idsByName.get(playerName);
+		if(playerID == null) return null;
+		return this.lookup(playerID);
+	}
+	
+	//whether a player's data is in memory
+	synchronized boolean contains(UUID playerID)
+	{
+		return this.onlinePlayers.containsKey(playerID) || this.offlinePlayers.containsKey(playerID) || this.evictedPlayers.containsKey(playerID);
+	}
+	
+	//whether data is in memory for a player by this name
+	synchronized boolean containsName(String playerName)
+	{
+		return this.idsByName.containsKey(playerName);
+	}
+	
+	//moves a player's data from the offline list to the online players, if it's there.  returns null if it isn't
+	synchronized PlayerData pinOffline(UUID playerID, String playerName)
+	{
+		PlayerData playerData = this.take(playerID, playerName);
+		if(playerData != null)
+		{
+			this.hits.incrementAndGet();
+			this.onlinePlayers.put(playerID, playerData);
+		}
+		else
+		{
+			this.misses.incrementAndGet();
+		}
+		
+		return playerData;
+	}
+	
+	//adds an online player's data, unless it's already in memory.  returns whichever copy ends up in the cache
+	synchronized PlayerData putOnline(UUID playerID, String playerName, PlayerData playerData)
+	{
+		PlayerData existingData = this.onlinePlayers.get(playerID);
+		if(existingData == null) existingData = this.take(playerID, playerName);
+		if(existingData != null) playerData = existingData;
+		else this.index(playerID, playerName, playerData);
+		
+		this.onlinePlayers.put(playerID, playerData);
+		return playerData;
+	}
+	
+	//adds an offline player's data (say, prefetched for his login), unless it's already in memory.  returns whichever copy ends up in the cache
+	PlayerData putOffline(UUID playerID, String playerName, PlayerData playerData)
+	{
+		synchronized(this)
+		{
+			PlayerData existingData = this.onlinePlayers.get(playerID);
+			if(existingData != null) return existingData;
+			
+			//already among the offline players, maybe loaded by name.  put it back under his UUID
+			existingData = this.take(playerID, playerName);
+			if(existingData != null) playerData = existingData;
+			else this.index(playerID, playerName, playerData);
+			
+			this.offlinePlayers.put(playerID, playerData);
+		}
+		
+		this.evictIfNeeded();
+		return playerData;
+	}
+	
+	//adds data loaded by name alone, unless data for that name is already in memory.  returns whichever copy ends up in the cache
+	PlayerData putOfflineByName(String playerName, PlayerData playerData)
+	{
+		synchronized(this)
+		{
+			PlayerData existingData = this.find(playerName);
+			if(existingData != null) return existingData;
+			
+			UUID playerID = nameOnlyID(playerName);
+			this.index(playerID, playerName, playerData);
+			this.offlinePlayers.put(playerID, playerData);
+		}
+		
+		this.evictIfNeeded();
+		return playerData;
+	}
+	
+	//drops a player's data from memory.  if it was changed since it was last saved (the points service may change it from any thread), returns it so the caller can save it once more
+	synchronized PlayerData remove(UUID playerID)
+	{
+		PlayerData playerData = this.onlinePlayers.remove(playerID);
+		PlayerData offlineData = this.offlinePlayers.remove(playerID);
+		if(playerData == null) playerData = offlineData;
+		PlayerData evictedData = this.evictedPlayers.remove(playerID);
+		if(playerData == null) playerData = evictedData;
+		
+		if(playerData == null) return null;
+		this.unindex(playerID, playerData);
+		
+		if(playerData.dirty) return playerData;
+		return null;
+	}
+	
+	//copies every cached entry, by the name it's saved under, for the checkpoint task to look through
+	synchronized LinkedHashMap<String, PlayerData> getAll()
+	{
+		LinkedHashMap<String, PlayerData> all = new LinkedHashMap<String, PlayerData>();
+		for(PlayerData playerData : this.onlinePlayers.values()) all.put(playerData.playerName, playerData);
+		for(PlayerData playerData : this.offlinePlayers.values()) all.put(playerData.playerName, playerData);
+		for(PlayerData playerData : this.evictedPlayers.values()) all.put(playerData.playerName, playerData);
+		return all;
+	}
+	
+	//any entry, wherever it is.  the caller holds the lock
+	private PlayerData lookup(UUID playerID)
+	{
+		PlayerData playerData = this.onlinePlayers.get(playerID);
+		if(playerData == null) playerData = this.offlinePlayers.get(playerID);
+		if(playerData == null) playerData = this.evictedPlayers.get(playerID);
+		return playerData;
+	}
+	
+	//takes a player's entry out of the offline players, if it's there, under his UUID or (if it was loaded by name alone) under his name
+	//if he's been renamed since it was cached, it's saved under his new name from now on.  the caller holds the lock, and puts the entry back somewhere
+	private PlayerData take(UUID playerID, String playerName)
+	{
+		UUID cachedID = playerID;
+		PlayerData playerData = this.offlinePlayers.remove(cachedID);
+		if(playerData == null) playerData = this.evictedPlayers.remove(cachedID);
+		
+		//only data loaded by name alone is claimed by name.  another player's entry which happens to still have this name (he was renamed) stays his
+		if(playerData == null)
+		{
+			cachedID = nameOnlyID(playerName);
+			if(!cachedID.equals(playerID))
+			{
+				playerData = this.offlinePlayers.remove(cachedID);
+				if(playerData == null) playerData = this.evictedPlayers.remove(cachedID);
+			}
+		}
+		
+		if(playerData == null) return null;
+		
+		this.unindex(cachedID, playerData);
+		this.index(playerID, playerName, playerData);
+		return playerData;
+	}
+	
+	//records which name an entry's data is saved under.  the caller holds the lock
+	private void index(UUID playerID, String playerName, PlayerData playerData)
+	{
+		playerData.playerName = playerName;
+		this.idsByName.put(playerName, playerID);
+	}
+	
+	//forgets an entry's name, unless the name has since been taken by another entry.  the caller holds the lock
+	private void unindex(UUID playerID, PlayerData playerData)
+	{
+		if(playerID.equals(this.idsByName.get(playerData.playerName))) this.idsByName.remove(playerData.playerName);
+	}
+	
+	//after adding an offline player, deals with whoever that pushed out of the list.  called without the lock held
+	private void evictIfNeeded()
+	{
+		UUID evictedID;
+		PlayerData evictedData;
+		synchronized(this)
+		{
+			evictedID = this.lastEvictedID;
+			evictedData = this.lastEvictedData;
+			this.lastEvictedID = null;
+			this.lastEvictedData = null;
+		}
+		
+		if(evictedData != null) this.evicted(evictedID, evictedData);
+	}
+	
+	//when an offline player's data has been pushed out of the list, saves it if it has unsaved changes, then lets go of it.  called without the lock held
+	private void evicted(UUID playerID, PlayerData playerData)
+	{
+		this.evictions.incrementAndGet();
+		
+		while(true)
+		{
+			if(playerData.dirty)
+			{
+				playerData.dirty = false;
+				
+				String playerName;
+				synchronized(this)
+				{
+					playerName = playerData.playerName;
+				}
+				
+				this.dataStore.savePlayerData(playerName, playerData);
+			}
+			
+			//unless someone has picked it up again meanwhile (he logged in, say), it's gone for good.  if it was changed while being saved, save it again first
+			synchronized(this)
+			{
+				if(this.evictedPlayers.get(playerID) != playerData) return;
+				if(playerData.dirty) continue;
+				this.evictedPlayers.remove(playerID);
+				this.unindex(playerID, playerData);
+				return;
+			}
+		}
+	}
+	
+	long getHits()
+	{
+		return this.hits.get();
+	}
+	
+	long getMisses()
+	{
+		return this.misses.get();
+	}
+	
+	long getEvictions()
+	{
+		return this.evictions.get();
+	}
+	
+	synchronized int getOnlineCount()
+	{
+		return this.onlinePlayers.size();
+	}
+	
+	synchronized int getOfflineCount()
+	{
+		return this.offlinePlayers.size();
+	}
+}
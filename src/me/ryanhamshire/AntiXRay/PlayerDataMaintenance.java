@@ -0,0 +1,504 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+//FEATURE: bulk maintenance of the PlayerData folder: export, import, reset, clamp and prune
+
+//works on the flat player files directly, spread over all processors with fork-join, without loading anything into a data store or its cache
+//usable without a server (see PlayerDataTool) and from a background thread on a running one (see "/antixray data")
+//records are exported and imported as JSON lines: one {"name":"...","points":123,"lastModified":...} object per line
+class PlayerDataMaintenance
+{
+	//how many files one task handles before splitting its share in two
+	private final static int FILES_PER_TASK = 256;
+	
+	//how many import lines are read before they're written out in parallel
+	private final static int IMPORT_CHUNK_LINES = 16 * 1024;
+	
+	private final static String UTF8 = "UTF-8";
+	
+	//the PlayerData folder
+	private final File folder;
+	
+	private final ForkJoinPool pool;
+	
+	//what happened, for reporting.  updated from every worker thread
+	final AtomicLong scanned = new AtomicLong();
+	final AtomicLong changed = new AtomicLong();
+	final AtomicLong deleted = new AtomicLong();
+	final AtomicLong failed = new AtomicLong();
+	
+	PlayerDataMaintenance(File folder, int parallelism)
+	{
+		this.folder = folder;
+		this.pool = new ForkJoinPool(parallelism);
+	}
+	
+	//stops the worker threads.  call when done
+	void close()
+	{
+		this.pool.shutdown();
+	}
+	
+	//writes every player's record to a JSON lines file.  records come out in no particular order
+	void export(File outputFile) throws IOException
+	{
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), UTF8), 1 << 16);
+		try
+		{
+			this.forEachPlayerFile(new Visitor()
+			{
+				//each task collects its share of lines, then writes them all at once, so workers hardly ever wait for the writer
+				@Override
+				void visitRange(String [] playerNames, int from, int to) throws IOException
+				{
+					StringBuilder lines = new StringBuilder((to - from) * 64);
+					for(int i = from; i < to; i++)
+					{
+						String playerName = playerNames[i];
+						File playerFile = PlayerDataMaintenance.this.playerFile(playerName);
+						try
+						{
+							int points = FlatFileDataStore.readPoints(playerFile);
+							lines.append("{\"name\":");
+							appendJsonString(lines, playerName);
+							lines.append(",\"points\":").append(points);
+							lines.append(",\"lastModified\":").append(playerFile.lastModified());
+							lines.append("}\n");
+						}
+						catch(Exception e)
+						{
+							PlayerDataMaintenance.this.fail(playerName, e);
+						}
+					}
+					
+					synchronized(writer)
+					{
+						writer.append(lines);
+					}
+				}
+			});
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+	
+	//writes a player file for every record in a JSON lines file, replacing any existing file for the same player.  players not in the file are left alone
+	void importFrom(File inputFile) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), UTF8), 1 << 16);
+		try
+		{
+			//reading is one line after another, so the lines are read a chunk at a time and each chunk written in parallel
+			final ArrayList<String> lines = new ArrayList<String>(IMPORT_CHUNK_LINES);
+			Visitor importer = new Visitor()
+			{
+				@Override
+				void visitRange(String [] unused, int from, int to)
+				{
+					for(int i = from; i < to; i++)
+					{
+						String line = lines.get(i);
+						String playerName = null;
+						try
+						{
+							playerName = jsonString(line, "name");
+							long points = jsonNumber(line, "points");
+							if(!isValidPlayerName(playerName)) throw new IOException("invalid player name");
+							if(points < Integer.MIN_VALUE || points > Integer.MAX_VALUE) throw new IOException("points out of range");
+							
+							FlatFileDataStore.writePoints(PlayerDataMaintenance.this.playerFile(playerName), (int)points, false);
+							PlayerDataMaintenance.this.changed.incrementAndGet();
+						}
+						catch(Exception e)
+						{
+							PlayerDataMaintenance.this.fail(playerName != null ? playerName : "line: " + line, e);
+						}
+					}
+				}
+			};
+			
+			String line;
+			while(true)
+			{
+				line = reader.readLine();
+				if(line != null && line.trim().length() > 0)
+				{
+					lines.add(line);
+					this.scanned.incrementAndGet();
+				}
+				
+				if(lines.size() == IMPORT_CHUNK_LINES || (line == null && lines.size() > 0))
+				{
+					this.pool.invoke(new RangeTask(null, 0, lines.size(), importer));
+					lines.clear();
+				}
+				
+				if(line == null) break;
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+	
+	//sets every player's points to the same value.  on a running server, players whose data it has are reset there instead
+	void reset(final int points, LiveData liveData)
+	{
+		this.forEachPlayerFile(new PointsTransform(liveData, new PointsChange()
+		{
+			@Override
+			int apply(int oldPoints)
+			{
+				return points;
+			}
+		}));
+	}
+	
+	//lowers anyone with more than the maximum points to the maximum
+	void clamp(final int maxPoints, LiveData liveData)
+	{
+		this.forEachPlayerFile(new PointsTransform(liveData, new PointsChange()
+		{
+			@Override
+			int apply(int oldPoints)
+			{
+				return Math.min(oldPoints, maxPoints);
+			}
+		}));
+	}
+	
+	//deletes the files of players whose data hasn't been saved since a time (files are saved at least whenever their player logs out)
+	//on a running server, players whose data it has are in use, so they're kept
+	void prune(final long cutoffTime, final LiveData liveData)
+	{
+		this.forEachPlayerFile(new Visitor()
+		{
+			@Override
+			void visitRange(String [] playerNames, int from, int to)
+			{
+				for(int i = from; i < to; i++)
+				{
+					String playerName = playerNames[i];
+					File playerFile = PlayerDataMaintenance.this.playerFile(playerName);
+					
+					liveData.lock(playerName);
+					try
+					{
+						if(liveData.has(playerName)) continue;
+						if(playerFile.lastModified() >= cutoffTime) continue;
+						
+						if(playerFile.delete())
+						{
+							PlayerDataMaintenance.this.deleted.incrementAndGet();
+						}
+						else
+						{
+							PlayerDataMaintenance.this.fail(playerName, new IOException("couldn't delete the file"));
+						}
+					}
+					finally
+					{
+						liveData.unlock(playerName);
+					}
+				}
+			}
+		});
+	}
+	
+	//how an operation changes a player's points
+	static abstract class PointsChange
+	{
+		abstract int apply(int oldPoints);
+	}
+	
+	//on a running server, the player data it has in memory or waiting to be written.  that's newer than the player's file, and its next save would overwrite
+	//any change to the file, so those players are changed there instead.  a player is locked while his file is looked at, which keeps his data from being loaded
+	//meanwhile.  so either his data is loaded after his file has been changed, or it's loaded first and then changed in memory
+	static abstract class LiveData
+	{
+		abstract void lock(String playerName);
+		abstract void unlock(String playerName);
+		
+		//whether the server has this player's data.  only while he's locked
+		abstract boolean has(String playerName);
+		
+		//changes this player's points where the server has his data, and returns true.  returns false when it doesn't have it.  only while he's locked
+		abstract boolean change(String playerName, PointsChange change);
+	}
+	
+	//for when no server is running, like in PlayerDataTool
+	static LiveData noServer()
+	{
+		return new LiveData()
+		{
+			@Override
+			void lock(String playerName) { }
+			
+			@Override
+			void unlock(String playerName) { }
+			
+			@Override
+			boolean has(String playerName)
+			{
+				return false;
+			}
+			
+			@Override
+			boolean change(String playerName, PointsChange change)
+			{
+				return false;
+			}
+		};
+	}
+	
+	//describes what happened, for the console
+	String describe(long startTime)
+	{
+		return this.scanned.get() + " players scanned, " + this.changed.get() + " changed, " + this.deleted.get() + " removed, " + this.failed.get() + " failed, in " + ((System.currentTimeMillis() - startTime) / 1000.0) + " seconds.";
+	}
+	
+	//lists the player files (but not temporary files left by a crash), then visits them in parallel
+	private void forEachPlayerFile(Visitor visitor)
+	{
+		String [] names = this.folder.list();
+		if(names == null) return;
+		
+		//squeeze out the temporary files first, so the tasks split the real work evenly
+		int count = 0;
+		for(int i = 0; i < names.length; i++)
+		{
+			if(!names[i].endsWith(FlatFileDataStore.tempFileSuffix)) names[count++] = names[i];
+		}
+		
+		this.scanned.addAndGet(count);
+		this.pool.invoke(new RangeTask(names, 0, count, visitor));
+	}
+	
+	private File playerFile(String playerName)
+	{
+		return new File(this.folder, playerName);
+	}
+	
+	private void fail(String playerName, Exception e)
+	{
+		this.failed.incrementAndGet();
+		AntiXRay.AddLogEntry("Unable to process data for player \"" + playerName + "\": " + e.getMessage());
+	}
+	
+	//player names become file names, so anything which could step outside the folder (or clash with a temporary file) is refused
+	private static boolean isValidPlayerName(String playerName)
+	{
+		return playerName.length() > 0 && playerName.indexOf('/') < 0 && playerName.indexOf('\\') < 0 && playerName.indexOf('.') < 0;
+	}
+	
+	//visits a share of the player names
+	private static abstract class Visitor
+	{
+		abstract void visitRange(String [] playerNames, int from, int to) throws IOException;
+	}
+	
+	//rewrites each player's points where they change
+	private class PointsTransform extends Visitor
+	{
+		private final LiveData liveData;
+		private final PointsChange change;
+		
+		PointsTransform(LiveData liveData, PointsChange change)
+		{
+			this.liveData = liveData;
+			this.change = change;
+		}
+		
+		@Override
+		void visitRange(String [] playerNames, int from, int to)
+		{
+			for(int i = from; i < to; i++)
+			{
+				String playerName = playerNames[i];
+				File playerFile = PlayerDataMaintenance.this.playerFile(playerName);
+				
+				this.liveData.lock(playerName);
+				try
+				{
+					if(this.liveData.change(playerName, this.change)) continue;
+					
+					int oldPoints = FlatFileDataStore.readPoints(playerFile);
+					int newPoints = this.change.apply(oldPoints);
+					if(newPoints == oldPoints) continue;
+					
+					FlatFileDataStore.writePoints(playerFile, newPoints, false);
+					PlayerDataMaintenance.this.changed.incrementAndGet();
+				}
+				catch(Exception e)
+				{
+					PlayerDataMaintenance.this.fail(playerName, e);
+				}
+				finally
+				{
+					this.liveData.unlock(playerName);
+				}
+			}
+		}
+	}
+	
+	//splits a range of names in half until it's small enough to visit directly
+	private static class RangeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final String [] playerNames;
+		private final int from;
+		private final int to;
+		private final Visitor visitor;
+		
+		RangeTask(String [] playerNames, int from, int to, Visitor visitor)
+		{
+			this.playerNames = playerNames;
+			this.from = from;
+			this.to = to;
+			this.visitor = visitor;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(this.to - this.from <= FILES_PER_TASK)
+			{
+				try
+				{
+					this.visitor.visitRange(this.playerNames, this.from, this.to);
+				}
+				catch(IOException e)
+				{
+					throw new RuntimeException(e);
+				}
+				
+				return;
+			}
+			
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new RangeTask(this.playerNames, this.from, middle, this.visitor), new RangeTask(this.playerNames, middle, this.to, this.visitor));
+		}
+	}
+	
+	//writes a JSON string, quoted and escaped
+	private static void appendJsonString(StringBuilder json, String value)
+	{
+		json.append('"');
+		for(int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\')
+			{
+				json.append('\\').append(c);
+			}
+			else if(c < 0x20)
+			{
+				json.append(String.format("\\u%04x", (int)c));
+			}
+			else
+			{
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+	
+	//reads a string field from a one-line JSON object.  only as much JSON as the export format uses
+	private static String jsonString(String json, String key) throws IOException
+	{
+		int i = valueStart(json, key);
+		if(i >= json.length() || json.charAt(i) != '"') throw new IOException("\"" + key + "\" isn't a string");
+		
+		StringBuilder value = new StringBuilder();
+		for(i++; i < json.length(); i++)
+		{
+			char c = json.charAt(i);
+			if(c == '"') return value.toString();
+			if(c == '\\' && i + 1 < json.length())
+			{
+				char escaped = json.charAt(++i);
+				if(escaped == 'u' && i + 4 < json.length())
+				{
+					value.append((char)Integer.parseInt(json.substring(i + 1, i + 5), 16));
+					i += 4;
+				}
+				else if(escaped == 'n') value.append('\n');
+				else if(escaped == 't') value.append('\t');
+				else if(escaped == 'r') value.append('\r');
+				else value.append(escaped);
+			}
+			else
+			{
+				value.append(c);
+			}
+		}
+		
+		throw new IOException("unterminated string");
+	}
+	
+	//reads a whole number field from a one-line JSON object
+	private static long jsonNumber(String json, String key) throws IOException
+	{
+		int start = valueStart(json, key);
+		int end = start;
+		if(end < json.length() && json.charAt(end) == '-') end++;
+		while(end < json.length() && Character.isDigit(json.charAt(end))) end++;
+		
+		try
+		{
+			return Long.parseLong(json.substring(start, end));
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IOException("\"" + key + "\" isn't a whole number");
+		}
+	}
+	
+	//finds where a field's value starts
+	private static int valueStart(String json, String key) throws IOException
+	{
+		int i = json.indexOf("\"" + key + "\"");
+		if(i < 0) throw new IOException("no \"" + key + "\"");
+		
+		i = json.indexOf(':', i + key.length() + 2);
+		if(i < 0) throw new IOException("no value for \"" + key + "\"");
+		
+		for(i++; i < json.length() && Character.isWhitespace(json.charAt(i)); i++);
+		return i;
+	}
+}
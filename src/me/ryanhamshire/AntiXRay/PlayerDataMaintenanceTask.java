@@ -0,0 +1,237 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+
+//runs "/antixray data" operations on a running server.  the bulk work happens off the main thread, then the result is reported on it
+//players whose data is in memory (or waiting to be written) are handled there and left alone on disk, because their next save would overwrite any change to their files.
+//that's decided player by player as the files are visited, with each player's loads locked out meanwhile, so a player loaded during the operation is handled too
+//importing isn't offered here for the same reason: it's for PlayerDataTool, with the server stopped
+class PlayerDataMaintenanceTask implements Runnable
+{
+	//only one operation at a time
+	private static AtomicBoolean running = new AtomicBoolean(false);
+	
+	private Player requester;
+	private String operation;
+	private int argument;
+	private File exportFile;
+	
+	private PlayerDataMaintenanceTask(Player requester, String operation, int argument, File exportFile)
+	{
+		this.requester = requester;
+		this.operation = operation;
+		this.argument = argument;
+		this.exportFile = exportFile;
+	}
+	
+	//checks a command's arguments and starts the operation.  called on the main thread.  returns false when the arguments don't make sense
+	static boolean start(Player requester, String [] args)
+	{
+		if(args.length < 2) return false;
+		String operation = args[1].toLowerCase();
+		
+		AntiXRay plugin = AntiXRay.instance;
+		int argument = 0;
+		File exportFile = null;
+		try
+		{
+			if(operation.equals("export") && args.length == 3)
+			{
+				//only a file name, always in the data folder
+				exportFile = new File(DataStore.dataLayerFolderPath, new File(args[2]).getName());
+			}
+			else if(operation.equals("reset") && args.length == 3)
+			{
+				argument = Integer.parseInt(args[2]);
+			}
+			else if(operation.equals("clamp") && args.length <= 3)
+			{
+				argument = args.length == 3 ? Integer.parseInt(args[2]) : plugin.config.maxPoints;
+			}
+			else if(operation.equals("prune") && args.length == 3)
+			{
+				argument = Integer.parseInt(args[2]);
+				if(argument <= 0) return false;
+			}
+			else
+			{
+				return false;
+			}
+		}
+		catch(NumberFormatException e)
+		{
+			return false;
+		}
+		
+		if(!(plugin.dataStore instanceof FlatFileDataStore))
+		{
+			AntiXRay.sendMessage(requester, TextMode.Err, Messages.MaintenanceNeedsFlatFile);
+			return true;
+		}
+		
+		if(!running.compareAndSet(false, true))
+		{
+			AntiXRay.sendMessage(requester, TextMode.Err, Messages.MaintenanceBusy);
+			return true;
+		}
+		
+		if(operation.equals("reset")) plugin.leaderboard.pointsReset();
+		else if(operation.equals("clamp")) plugin.leaderboard.pointsClamped(argument);
+		
+		//write out changes in memory first, so an export has them
+		plugin.dataStore.checkpoint();
+		
+		AntiXRay.sendMessage(requester, TextMode.Info, Messages.MaintenanceStarted, operation);
+		plugin.getServer().getScheduler().scheduleAsyncDelayedTask(plugin, new PlayerDataMaintenanceTask(requester, operation, argument, exportFile));
+		return true;
+	}
+	
+	@Override
+	public void run()
+	{
+		//leave a processor for the main thread
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		PlayerDataMaintenance maintenance = new PlayerDataMaintenance(new File(FlatFileDataStore.playerDataFolderPath), threads);
+		long startTime = System.currentTimeMillis();
+		String failure = null;
+		try
+		{
+			//the files must be up to date before they're read
+			FlatFileDataStore dataStore = (FlatFileDataStore)AntiXRay.instance.dataStore;
+			dataStore.flush();
+			
+			ServerData serverData = new ServerData(dataStore);
+			if(this.operation.equals("export"))
+			{
+				maintenance.export(this.exportFile);
+			}
+			else if(this.operation.equals("reset"))
+			{
+				maintenance.reset(this.argument, serverData);
+			}
+			else if(this.operation.equals("clamp"))
+			{
+				maintenance.clamp(this.argument, serverData);
+			}
+			else if(this.operation.equals("prune"))
+			{
+				maintenance.prune(startTime - this.argument * 24L * 60 * 60 * 1000, serverData);
+			}
+		}
+		catch(Exception e)
+		{
+			failure = e.getMessage();
+		}
+		finally
+		{
+			maintenance.close();
+			running.set(false);
+		}
+		
+		final String result = failure == null ? maintenance.describe(startTime) : failure;
+		final Messages messageID = failure == null ? Messages.MaintenanceDone : Messages.MaintenanceFailed;
+		final ChatColor color = failure == null ? TextMode.Success : TextMode.Err;
+		AntiXRay.AddLogEntry("Player data " + this.operation + ": " + result);
+		
+		//report back on the main thread
+		AntiXRay.instance.getServer().getScheduler().scheduleSyncDelayedTask(AntiXRay.instance, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Player requester = PlayerDataMaintenanceTask.this.requester;
+				if(requester == null || requester.isOnline())
+				{
+					AntiXRay.sendMessage(requester, color, messageID, PlayerDataMaintenanceTask.this.operation, result);
+				}
+			}
+		});
+	}
+	
+	//the running server's player data, for maintenance: the cache, and saves still waiting in the data store's write queue
+	private static class ServerData extends PlayerDataMaintenance.LiveData
+	{
+		private FlatFileDataStore dataStore;
+		
+		ServerData(FlatFileDataStore dataStore)
+		{
+			this.dataStore = dataStore;
+		}
+		
+		@Override
+		void lock(String playerName)
+		{
+			this.dataStore.getLoadLock(playerName).lock();
+		}
+		
+		@Override
+		void unlock(String playerName)
+		{
+			this.dataStore.getLoadLock(playerName).unlock();
+		}
+		
+		@Override
+		boolean has(String playerName)
+		{
+			return this.dataStore.playerDataCache.containsName(playerName) || this.dataStore.getPendingSave(playerName) != null;
+		}
+		
+		@Override
+		boolean change(String playerName, PlayerDataMaintenance.PointsChange change)
+		{
+			//in memory, the points are changed in one step, so a change made meanwhile from another thread isn't lost.  the next checkpoint saves them
+			PlayerData playerData = this.dataStore.playerDataCache.find(playerName);
+			if(playerData != null)
+			{
+				while(true)
+				{
+					int oldPoints = playerData.getPoints();
+					int newPoints = change.apply(oldPoints);
+					if(newPoints == oldPoints) return true;
+					if(playerData.compareAndSetPoints(oldPoints, newPoints)) break;
+				}
+				
+				playerData.dirty = true;
+				return true;
+			}
+			
+			//waiting to be written, a changed copy is queued in its place
+			PlayerData pendingData = this.dataStore.getPendingSave(playerName);
+			if(pendingData != null)
+			{
+				int newPoints = change.apply(pendingData.getPoints());
+				if(newPoints != pendingData.getPoints())
+				{
+					pendingData.setPoints(newPoints);
+					this.dataStore.savePlayerData(playerName, pendingData);
+				}
+				
+				return true;
+			}
+			
+			return false;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,116 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.File;
+
+//command line entry point for bulk player data maintenance, for use while the server is stopped
+//run it from the server's folder, with the server jar on the class path:
+//  java -cp plugins/AntiXRay.jar:craftbukkit.jar me.ryanhamshire.AntiXRay.PlayerDataTool export players.jsonl
+public class PlayerDataTool
+{
+	public static void main(String [] args)
+	{
+		File folder = new File(FlatFileDataStore.playerDataFolderPath);
+		int threads = Runtime.getRuntime().availableProcessors();
+		
+		//options first, then the operation and its argument
+		int i = 0;
+		try
+		{
+			for(; i + 1 < args.length && args[i].startsWith("--"); i += 2)
+			{
+				if(args[i].equals("--folder")) folder = new File(args[i + 1]);
+				else if(args[i].equals("--threads")) threads = Math.max(1, Integer.parseInt(args[i + 1]));
+				else usage();
+			}
+		}
+		catch(NumberFormatException e)
+		{
+			usage();
+		}
+		
+		if(args.length - i != 2) usage();
+		String operation = args[i];
+		String argument = args[i + 1];
+		
+		if(!folder.isDirectory())
+		{
+			System.err.println("No player data folder at " + folder.getAbsolutePath() + ".");
+			System.exit(1);
+		}
+		
+		PlayerDataMaintenance maintenance = new PlayerDataMaintenance(folder, threads);
+		long startTime = System.currentTimeMillis();
+		try
+		{
+			if(operation.equalsIgnoreCase("export"))
+			{
+				maintenance.export(new File(argument));
+			}
+			else if(operation.equalsIgnoreCase("import"))
+			{
+				maintenance.importFrom(new File(argument));
+			}
+			else if(operation.equalsIgnoreCase("reset"))
+			{
+				maintenance.reset(Integer.parseInt(argument), PlayerDataMaintenance.noServer());
+			}
+			else if(operation.equalsIgnoreCase("clamp"))
+			{
+				maintenance.clamp(Integer.parseInt(argument), PlayerDataMaintenance.noServer());
+			}
+			else if(operation.equalsIgnoreCase("prune"))
+			{
+				maintenance.prune(startTime - Integer.parseInt(argument) * 24L * 60 * 60 * 1000, PlayerDataMaintenance.noServer());
+			}
+			else
+			{
+				usage();
+			}
+		}
+		catch(NumberFormatException e)
+		{
+			usage();
+		}
+		catch(Exception e)
+		{
+			System.err.println("Failed: " + e.getMessage());
+			System.exit(1);
+		}
+		finally
+		{
+			maintenance.close();
+		}
+		
+		System.out.println(maintenance.describe(startTime));
+		System.exit(maintenance.failed.get() == 0 ? 0 : 1);
+	}
+	
+	private static void usage()
+	{
+		System.err.println("Usage: PlayerDataTool [--folder <PlayerData folder>] [--threads <count>] <operation> <argument>");
+		System.err.println("  export <file>      write every player's data to a JSON lines file");
+		System.err.println("  import <file>      write player files from a JSON lines file");
+		System.err.println("  reset <points>     set everyone's points");
+		System.err.println("  clamp <maximum>    lower anyone above the maximum points to it");
+		System.err.println("  prune <days>       delete players whose data hasn't been saved in that many days");
+		System.exit(2);
+	}
+}
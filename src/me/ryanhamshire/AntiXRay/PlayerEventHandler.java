@@ -18,6 +18,8 @@
 
 package me.ryanhamshire.AntiXRay;
 
+import java.io.IOException;
+
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -33,13 +35,78 @@ class PlayerEventHandler implements Listener
 		this.dataStore = dataStore;
 	}
 
+	//before a player logs in, on a separate thread from the main server thread...
+	@EventHandler(priority = EventPriority.MONITOR)
+	void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event)
+	{
+		//don't bother if another plugin has already turned him away
+		if(event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+		
+		//load his player data now, so that it's already in memory when he joins
+		try
+		{
+			this.dataStore.prefetchPlayerData(event.getUniqueId(), event.getName());
+		}
+		
+		//if it can't be loaded, turn him away.  he'd otherwise play with the wrong points, which would then be saved over his real ones
+		catch(IOException e)
+		{
+			event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, this.dataStore.getMessage(Messages.PlayerDataUnavailable));
+		}
+	}
+	
+	//when a player's login is processed on the main thread...
+	@EventHandler(priority = EventPriority.MONITOR)
+	void onPlayerLogin(PlayerLoginEvent event)
+	{
+		//if he was turned away after his data was prefetched, drop it from memory
+		if(event.getResult() != PlayerLoginEvent.Result.ALLOWED)
+		{
+			Player player = event.getPlayer();
+			if(!player.isOnline())
+			{
+				this.dataStore.clearCachedPlayerData(player.getUniqueId());
+			}
+		}
+	}
+	
 	//when a player successfully joins the server...
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
 	void onPlayerJoin(PlayerJoinEvent event)
 	{
 		//get his player data, forcing it to initialize if we've never seen him before
-		@SuppressWarnings("unused")
-		PlayerData playerData = this.dataStore.getPlayerData(event.getPlayer());
+		Player player = event.getPlayer();
+		PlayerData playerData = this.dataStore.getPlayerData(player);
+		
+		//if it couldn't be loaded after all, turn him away
+		if(playerData.unavailable)
+		{
+			player.kickPlayer(this.dataStore.getMessage(Messages.PlayerDataUnavailable));
+			return;
+		}
+		
+		//start giving him points for play time
+		AntiXRay.instance.deliverPointsTask.addPlayer(player, playerData);
+	}
+	
+	//when a player's game mode changes...
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onPlayerGameModeChange(PlayerGameModeChangeEvent event)
+	{
+		//the event comes before the change, so check against the new game mode
+		Player player = event.getPlayer();
+		PlayerData playerData = this.dataStore.getPlayerData(player);
+		AntiXRay.refreshPermissions(player, playerData, event.getNewGameMode());
+	}
+	
+	//when a player changes worlds...
+	@EventHandler(priority = EventPriority.MONITOR)
+	void onPlayerChangedWorld(PlayerChangedWorldEvent event)
+	{
+		//permissions may be different in the new world
+		Player player = event.getPlayer();
+		PlayerData playerData = this.dataStore.getPlayerData(player);
+		AntiXRay.refreshPermissions(player, playerData, player.getGameMode());
 	}
 	
 	//when a player quits...
@@ -49,10 +116,22 @@ class PlayerEventHandler implements Listener
 		Player player = event.getPlayer();
 		String playerName = player.getName();
 		
-		//save player data, just in case he accrued some block points which haven't been saved yet
-		this.dataStore.savePlayerData(playerName, this.dataStore.getPlayerData(player));
+		//only what's in memory.  getPlayerData() would refresh his permissions when his data couldn't be loaded, which signs a moderator up for notifications again
+		PlayerData playerData = this.dataStore.playerDataCache.getOnline(player.getUniqueId());
+		if(playerData != null)
+		{
+			//stop giving him points for play time
+			AntiXRay.instance.deliverPointsTask.removePlayer(player, playerData);
+			
+			//save player data, just in case he accrued some block points which haven't been saved yet
+			playerData.dirty = false;
+			this.dataStore.savePlayerData(playerName, playerData);
+		}
+		
+		//drop player data from memory (saving it again if it was changed meanwhile)
+		this.dataStore.clearCachedPlayerData(player.getUniqueId());
 		
-		//drop player data from memory
-		this.dataStore.clearCachedPlayerData(playerName);
+		//stop sending him notifications.  last, so nothing above can sign him up again
+		AntiXRay.instance.moderators.remove(player);
 	}
 }
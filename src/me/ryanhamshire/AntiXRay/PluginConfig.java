@@ -0,0 +1,370 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.File;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+//FEATURE: change settings (like ore values) on a running server with "/antixray reload"
+
+//every setting from config.yml, read and validated in one go
+//never changed once built, with one exception.  a reload builds a new one and swaps it in whole, so an event handler which reads AntiXRay.instance.config once sees one consistent set of settings
+//the exception is enabledWorlds: its rules are fixed, but it's told as enabled worlds load and unload, on the main thread.  so unlike everything else here,
+//it may only be used from the main thread
+class PluginConfig
+{
+	final List<String> enabledWorldNames;										//worlds where players are limited in how quickly they can mine valuable ores
+	final EnabledWorlds enabledWorlds;											//the rules for each of those worlds.  NOT immutable: it tracks which of them are loaded, so main thread only
+	final int pointsPerHour;													//how quickly players earn "points" which allow them to mine valuables
+	final int maxPoints;														//the upper limit on points
+	final int startingPoints;													//initial points for players who are new to the server
+	final boolean earnPointsOnDemand;											//whether earned points are worked out when they're needed, instead of delivered every few minutes by a task
+	final List<SimpleEntry<Material, Integer>> protectedBlocks;					//points required to break various block types
+	final boolean exemptCreativeModePlayers;									//whether creative mode players should be exempt from the rules
+	final boolean notifyOnLimitReached;											//whether to notify online moderators when a player reaches his limit
+	final int cantBreakYetMessageSeconds;										//after telling a player he can't break a block yet, how long before he's told again, in seconds
+	final int notifyOnSuspicionPercent;											//what percentage of a player's recently broken blocks must be valuable before online moderators are notified, or zero to never notify
+	final int leaderboardPeriodHours;											//how long a period "/antixray top" counts points spent over, in hours.  periods start at local midnight, the last one of a day ending early if needed.  longer than a day means whole days
+	final String playerDataStorage;												//how player data is stored: "FlatFile" (one file per player), "MappedFile" (one binary file for everyone) or "Database"
+	final String databaseUrl;													//JDBC connection details, used when player data is stored in a database
+	final String databaseUserName;
+	final String databasePassword;
+	final int databasePoolSize;													//how many idle database connections to keep open
+	final int offlinePlayerCacheSize;											//how many offline players' data may be kept in memory
+	final int checkpointSeconds;												//how often changed player data is saved, in seconds.  zero disables checkpoints
+	final int metricsDumpSeconds;												//how often metrics are written to metrics.txt and metrics.json, in seconds.  zero disables the dump
+	final int logFileKilobytes;													//how large the plugin's own log file may grow before it's rotated, in kilobytes.  zero disables the file (the console still gets everything)
+	final int logFilesKept;														//how many rotated log files are kept besides the current one
+	final int logEntriesPerMinute;												//how many alerts of one kind (like "reached the mining limit") are written per minute.  the rest are counted, not written.  other log entries aren't limited
+	
+	//reads settings from a config file (note defaults).  when no worlds are listed, the default world names are used
+	PluginConfig(FileConfiguration config, List<String> defaultWorldNames)
+	{
+		List<String> enabledWorldNames = config.getStringList("AntiXRay.Worlds");
+		if(enabledWorldNames == null || enabledWorldNames.size() == 0)
+		{
+			enabledWorldNames = defaultWorldNames;
+		}
+		
+		this.enabledWorldNames = Collections.unmodifiableList(new ArrayList<String>(enabledWorldNames));
+		
+		this.startingPoints = config.getInt("AntiXRay.NewPlayerStartingPoints", -400);
+		this.pointsPerHour = atLeast(config, "AntiXRay.PointsEarnedPerHourPlayed", 800, 0);
+		this.maxPoints = config.getInt("AntiXRay.MaximumPoints", 1600);
+		this.earnPointsOnDemand = config.getBoolean("AntiXRay.EarnPointsOnDemand", false);
+		
+		this.exemptCreativeModePlayers = config.getBoolean("AntiXRay.ExemptCreativeModePlayers", true);
+		
+		this.notifyOnLimitReached = config.getBoolean("AntiXRay.NotifyOnMiningLimitReached", false);
+		this.cantBreakYetMessageSeconds = atLeast(config, "AntiXRay.MiningLimitMessageCooldownSeconds", 5, 0);
+		this.notifyOnSuspicionPercent = Math.min(100, atLeast(config, "AntiXRay.NotifyOnSuspiciousMiningPercent", 0, 0));
+		this.leaderboardPeriodHours = atLeast(config, "AntiXRay.LeaderboardPeriodHours", 24, 1);
+		
+		this.playerDataStorage = config.getString("AntiXRay.PlayerDataStorage", "FlatFile");
+		this.databaseUrl = config.getString("AntiXRay.Database.URL", "jdbc:sqlite:" + DataStore.dataLayerFolderPath + File.separator + "PlayerData.db");
+		this.databaseUserName = config.getString("AntiXRay.Database.UserName", "");
+		this.databasePassword = config.getString("AntiXRay.Database.Password", "");
+		this.databasePoolSize = atLeast(config, "AntiXRay.Database.ConnectionPoolSize", 2, 1);
+		
+		this.offlinePlayerCacheSize = atLeast(config, "AntiXRay.OfflinePlayerCacheSize", 500, 0);
+		this.checkpointSeconds = atLeast(config, "AntiXRay.SaveChangesEverySeconds", 60, 0);
+		this.metricsDumpSeconds = atLeast(config, "AntiXRay.WriteMetricsEverySeconds", 0, 0);
+		
+		this.logFileKilobytes = atLeast(config, "AntiXRay.Log.FileSizeKilobytes", 1024, 0);
+		this.logFilesKept = atLeast(config, "AntiXRay.Log.FilesKept", 5, 0);
+		this.logEntriesPerMinute = atLeast(config, "AntiXRay.Log.EntriesPerMinutePerKind", 60, 1);
+		
+		//try to load the list of valuable ores from the config file
+		ArrayList<SimpleEntry<Material, Integer>> protectedBlocks = loadProtectedBlocks(config, "AntiXRay.ProtectedBlockValues");
+		
+		//default for the protected blocks list
+		if(protectedBlocks.size() == 0)
+		{
+			protectedBlocks.add(new SimpleEntry<Material, Integer>(Material.DIAMOND_ORE, 100));
+			protectedBlocks.add(new SimpleEntry<Material, Integer>(Material.EMERALD_ORE, 50));
+		}
+		
+		this.protectedBlocks = Collections.unmodifiableList(protectedBlocks);
+		
+		//optional tiers, which give blocks different values at some heights or in some biomes
+		ArrayList<ProtectedBlockValues.DepthTier> depthTiers = loadDepthTiers(config, "AntiXRay.ProtectedBlockDepthValues");
+		ArrayList<ProtectedBlockValues.BiomeTier> biomeTiers = loadBiomeTiers(config, "AntiXRay.ProtectedBlockBiomeValues");
+		
+		//compile the lists into lookup tables, so that block events don't have to search them
+		WorldRules defaultRules = new WorldRules(this.pointsPerHour, this.maxPoints, new ProtectedBlockValues(this.protectedBlocks, depthTiers, biomeTiers));
+		
+		//set up the rules for each enabled world.  any world may override the global settings in its own section
+		this.enabledWorlds = new EnabledWorlds(defaultRules);
+		for(int i = 0; i < this.enabledWorldNames.size(); i++)
+		{
+			String worldName = this.enabledWorldNames.get(i);
+			String worldPath = "AntiXRay.WorldSettings." + worldName;
+			
+			WorldRules rules = defaultRules;
+			if(config.isConfigurationSection(worldPath))
+			{
+				int pointsPerHour = atLeast(config, worldPath + ".PointsEarnedPerHourPlayed", this.pointsPerHour, 0);
+				int maxPoints = config.getInt(worldPath + ".MaximumPoints", this.maxPoints);
+				
+				//a world may have its own values, depth tiers and biome tiers.  whichever of those it doesn't have come from the global settings
+				ProtectedBlockValues protectedBlockValues = defaultRules.protectedBlockValues;
+				boolean ownValues = config.isConfigurationSection(worldPath + ".ProtectedBlockValues");
+				boolean ownDepthTiers = config.isConfigurationSection(worldPath + ".ProtectedBlockDepthValues");
+				boolean ownBiomeTiers = config.isConfigurationSection(worldPath + ".ProtectedBlockBiomeValues");
+				if(ownValues || ownDepthTiers || ownBiomeTiers)
+				{
+					protectedBlockValues = new ProtectedBlockValues(
+						ownValues ? loadProtectedBlocks(config, worldPath + ".ProtectedBlockValues") : this.protectedBlocks,
+						ownDepthTiers ? loadDepthTiers(config, worldPath + ".ProtectedBlockDepthValues") : depthTiers,
+						ownBiomeTiers ? loadBiomeTiers(config, worldPath + ".ProtectedBlockBiomeValues") : biomeTiers);
+				}
+				
+				rules = new WorldRules(pointsPerHour, maxPoints, protectedBlockValues);
+			}
+			
+			this.enabledWorlds.enable(worldName, rules);
+		}
+		
+		//look for world names in the per-world settings which aren't in the worlds list, probably by mistake
+		ConfigurationSection worldSettingsSection = config.getConfigurationSection("AntiXRay.WorldSettings");
+		if(worldSettingsSection != null)
+		{
+			Iterator<String> iterator = worldSettingsSection.getKeys(false).iterator();
+			while(iterator.hasNext())
+			{
+				String worldName = iterator.next();
+				if(!this.enabledWorlds.isEnabled(worldName))
+				{
+					AntiXRay.AddLogEntry("Error: Configuration: There are WorldSettings for \"" + worldName + "\", but it isn't in the Worlds list.");
+				}
+			}
+		}
+	}
+	
+	//writes these settings back to a config file
+	//(this writes the defaults to the config file when nothing is specified)
+	void save(FileConfiguration config)
+	{
+		config.set("AntiXRay.Worlds", new ArrayList<String>(this.enabledWorldNames));
+		config.set("AntiXRay.NewPlayerStartingPoints", this.startingPoints);
+		config.set("AntiXRay.PointsEarnedPerHourPlayed", this.pointsPerHour);
+		config.set("AntiXRay.MaximumPoints", this.maxPoints);
+		config.set("AntiXRay.EarnPointsOnDemand", this.earnPointsOnDemand);
+		
+		config.set("AntiXRay.ExemptCreativeModePlayers", this.exemptCreativeModePlayers);
+		
+		config.set("AntiXRay.NotifyOnMiningLimitReached", this.notifyOnLimitReached);
+		config.set("AntiXRay.MiningLimitMessageCooldownSeconds", this.cantBreakYetMessageSeconds);
+		config.set("AntiXRay.NotifyOnSuspiciousMiningPercent", this.notifyOnSuspicionPercent);
+		config.set("AntiXRay.LeaderboardPeriodHours", this.leaderboardPeriodHours);
+		
+		config.set("AntiXRay.PlayerDataStorage", this.playerDataStorage);
+		config.set("AntiXRay.Database.URL", this.databaseUrl);
+		config.set("AntiXRay.Database.UserName", this.databaseUserName);
+		config.set("AntiXRay.Database.Password", this.databasePassword);
+		config.set("AntiXRay.Database.ConnectionPoolSize", this.databasePoolSize);
+		
+		config.set("AntiXRay.OfflinePlayerCacheSize", this.offlinePlayerCacheSize);
+		config.set("AntiXRay.SaveChangesEverySeconds", this.checkpointSeconds);
+		config.set("AntiXRay.WriteMetricsEverySeconds", this.metricsDumpSeconds);
+		
+		config.set("AntiXRay.Log.FileSizeKilobytes", this.logFileKilobytes);
+		config.set("AntiXRay.Log.FilesKept", this.logFilesKept);
+		config.set("AntiXRay.Log.EntriesPerMinutePerKind", this.logEntriesPerMinute);
+		
+		for(int i = 0; i < this.protectedBlocks.size(); i++)
+		{
+			SimpleEntry<Material, Integer> entry = this.protectedBlocks.get(i);
+			config.set("AntiXRay.ProtectedBlockValues." + entry.getKey(), entry.getValue().intValue());
+		}
+	}
+	
+	//whether going from these settings to newer ones changes anything which is only read when the plugin starts up
+	//(storage, the cache, which scheduled tasks run, and the log)
+	boolean changesStartupSettings(PluginConfig newer)
+	{
+		return this.earnPointsOnDemand != newer.earnPointsOnDemand
+			|| !this.playerDataStorage.equalsIgnoreCase(newer.playerDataStorage)
+			|| !this.databaseUrl.equals(newer.databaseUrl)
+			|| !this.databaseUserName.equals(newer.databaseUserName)
+			|| !this.databasePassword.equals(newer.databasePassword)
+			|| this.databasePoolSize != newer.databasePoolSize
+			|| this.offlinePlayerCacheSize != newer.offlinePlayerCacheSize
+			|| this.checkpointSeconds != newer.checkpointSeconds
+			|| this.metricsDumpSeconds != newer.metricsDumpSeconds
+			|| this.logFileKilobytes != newer.logFileKilobytes
+			|| this.logFilesKept != newer.logFilesKept
+			|| this.logEntriesPerMinute != newer.logEntriesPerMinute;
+	}
+	
+	//reads a whole number setting which can't go below a minimum.  out of range values are logged and replaced with the minimum
+	private static int atLeast(FileConfiguration config, String path, int defaultValue, int minimum)
+	{
+		int value = config.getInt(path, defaultValue);
+		if(value < minimum)
+		{
+			AntiXRay.AddLogEntry("Error: Configuration: " + path + " can't be less than " + minimum + ".  Using " + minimum + ".");
+			value = minimum;
+		}
+		
+		return value;
+	}
+	
+	//reads and validates a list of protected blocks and their values from a section of the config file
+	private static ArrayList<SimpleEntry<Material, Integer>> loadProtectedBlocks(FileConfiguration config, String path)
+	{
+		ArrayList<String> protectedBlockNames = new ArrayList<String>();
+		ConfigurationSection protectedBlocksSection = config.getConfigurationSection(path);
+		if(protectedBlocksSection != null)
+		{
+			Set<String> names = protectedBlocksSection.getKeys(false);
+			Iterator<String> iterator = names.iterator();
+			while(iterator.hasNext())
+			{
+				protectedBlockNames.add(iterator.next());
+			}
+		}		
+		
+		//validate the list
+		ArrayList<SimpleEntry<Material, Integer>> protectedBlocks = new ArrayList<SimpleEntry<Material, Integer>>();
+		for(int i = 0; i < protectedBlockNames.size(); i++)
+		{
+			String blockName = protectedBlockNames.get(i);
+			
+			//validate the material name
+			Material material = Material.getMaterial(blockName);
+			if(material == null)
+			{
+				AntiXRay.AddLogEntry("Material not found: " + blockName + ".");
+				continue;
+			}			
+			
+			//read the material value
+			int materialValue = config.getInt(path + "." + blockName, 0);
+			protectedBlocks.add(new SimpleEntry<Material, Integer>(material, materialValue));
+		}
+		
+		return protectedBlocks;
+	}
+	
+	//reads and validates depth tiers: for each material, height ranges (like 0-16, or a single height) and the block's value there
+	private static ArrayList<ProtectedBlockValues.DepthTier> loadDepthTiers(FileConfiguration config, String path)
+	{
+		ArrayList<ProtectedBlockValues.DepthTier> depthTiers = new ArrayList<ProtectedBlockValues.DepthTier>();
+		ConfigurationSection depthTiersSection = config.getConfigurationSection(path);
+		if(depthTiersSection == null) return depthTiers;
+		
+		Iterator<String> blockNames = depthTiersSection.getKeys(false).iterator();
+		while(blockNames.hasNext())
+		{
+			String blockName = blockNames.next();
+			
+			//validate the material name
+			Material material = Material.getMaterial(blockName);
+			if(material == null)
+			{
+				AntiXRay.AddLogEntry("Material not found: " + blockName + ".");
+				continue;
+			}
+			
+			ConfigurationSection rangesSection = depthTiersSection.getConfigurationSection(blockName);
+			if(rangesSection == null) continue;
+			
+			Iterator<String> ranges = rangesSection.getKeys(false).iterator();
+			while(ranges.hasNext())
+			{
+				String range = ranges.next();
+				
+				//validate the range
+				try
+				{
+					String [] bounds = range.split("-");
+					int minY = Integer.parseInt(bounds[0].trim());
+					int maxY = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : minY;
+					if(bounds.length > 2 || maxY < minY) throw new NumberFormatException();
+					
+					depthTiers.add(new ProtectedBlockValues.DepthTier(material, minY, maxY, rangesSection.getInt(range, 0)));
+				}
+				catch(NumberFormatException e)
+				{
+					AntiXRay.AddLogEntry("Error: Configuration: \"" + range + "\" in " + path + "." + blockName + " isn't a height range like 0-16.");
+				}
+			}
+		}
+		
+		return depthTiers;
+	}
+	
+	//reads and validates biome tiers: for each material, biome names and the block's value in that biome
+	private static ArrayList<ProtectedBlockValues.BiomeTier> loadBiomeTiers(FileConfiguration config, String path)
+	{
+		ArrayList<ProtectedBlockValues.BiomeTier> biomeTiers = new ArrayList<ProtectedBlockValues.BiomeTier>();
+		ConfigurationSection biomeTiersSection = config.getConfigurationSection(path);
+		if(biomeTiersSection == null) return biomeTiers;
+		
+		Iterator<String> blockNames = biomeTiersSection.getKeys(false).iterator();
+		while(blockNames.hasNext())
+		{
+			String blockName = blockNames.next();
+			
+			//validate the material name
+			Material material = Material.getMaterial(blockName);
+			if(material == null)
+			{
+				AntiXRay.AddLogEntry("Material not found: " + blockName + ".");
+				continue;
+			}
+			
+			ConfigurationSection biomesSection = biomeTiersSection.getConfigurationSection(blockName);
+			if(biomesSection == null) continue;
+			
+			Iterator<String> biomeNames = biomesSection.getKeys(false).iterator();
+			while(biomeNames.hasNext())
+			{
+				String biomeName = biomeNames.next();
+				
+				//validate the biome name
+				Biome biome;
+				try
+				{
+					biome = Biome.valueOf(biomeName.toUpperCase());
+				}
+				catch(IllegalArgumentException e)
+				{
+					AntiXRay.AddLogEntry("Biome not found: " + biomeName + ".");
+					continue;
+				}
+				
+				biomeTiers.add(new ProtectedBlockValues.BiomeTier(material, biome, biomesSection.getInt(biomeName, 0)));
+			}
+		}
+		
+		return biomeTiers;
+	}
+}
@@ -0,0 +1,366 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+//FEATURE: keep logging from adding to lag, even when lots of players are hitting their limits at once
+
+//the plugin's log.  callers put entries in a preallocated ring buffer, without locking, allocating or waiting on I/O, and a background thread
+//puts the lines together and writes them to the console and to the plugin's own log file, which is rotated as it grows
+//each kind of alert about a player is limited to so many per minute, so a flood of one kind can't bury the others.  when the buffer is full, alerts are dropped and counted rather than making the caller wait
+//general entries (replies to console commands, maintenance results, errors) are never limited or dropped.  if the buffer is full, they go straight to the console instead
+class PluginLog extends Thread
+{
+	//what an entry is about.  alerts carry a player and a block, and their text is put together by the writer thread
+	enum Kind
+	{
+		General(null, false),
+		MiningLimitReached(" reached the mining speed limit at ", true),
+		SuspiciousMining(" is mining suspiciously many valuable blocks at ", true);
+		
+		//for alerts, what goes between the player's name and the location
+		final String text;
+		
+		//whether entries of this kind are limited per minute, and may be dropped when the buffer is full
+		final boolean limited;
+		
+		Kind(String text, boolean limited)
+		{
+			this.text = text;
+			this.limited = limited;
+		}
+	}
+	
+	//how many entries can be waiting to be written.  a power of two, so a sequence number maps to a slot with a mask
+	private final static int BUFFER_SIZE = 4096;
+	
+	//with nothing to write, the writer thread sleeps until an entry comes in, but wakes up this often anyway to report held back entries, in milliseconds
+	private final static long IDLE_MILLISECONDS = 1000;
+	
+	//the current log file's name.  rotated files are numbered, 1 being the most recent
+	private final static String LOG_FILE_NAME = "AntiXRay";
+	
+	//one entry.  filled in by whichever thread claimed it, and handed over by setting sequence last
+	private static class Slot
+	{
+		volatile long sequence = -1;
+		long time;
+		Kind kind;
+		String text;
+		String playerName;
+		String worldName;
+		int x, y, z;
+	}
+	
+	private final Slot [] slots = new Slot[BUFFER_SIZE];
+	
+	//how many entries have been claimed by callers, and how many of those the writer thread is done with.  the difference is what's waiting
+	private final AtomicLong claimed = new AtomicLong();
+	private volatile long written = 0;
+	
+	//per kind: when the current minute began, how many entries have been allowed in it, and how many have been held back since the writer last reported it
+	private final AtomicLongArray minuteStarts = new AtomicLongArray(Kind.values().length);
+	private final AtomicIntegerArray minuteCounts = new AtomicIntegerArray(Kind.values().length);
+	private final AtomicIntegerArray suppressed = new AtomicIntegerArray(Kind.values().length);
+	private final int entriesPerMinute;
+	
+	//entries which didn't fit in the buffer, since the writer last reported it
+	private final AtomicLong dropped = new AtomicLong();
+	
+	//the plugin's own log files, and how large they may grow.  a size of zero means there's no file, only the console
+	private final File folder;
+	private final long maxFileBytes;
+	private final int filesKept;
+	
+	//only used by the writer thread, except for general entries which don't fit in the buffer
+	private final Logger console;
+	private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	private Writer fileWriter = null;
+	private long fileBytes = 0;
+	
+	//set on shutdown.  the writer thread writes whatever's left, then stops
+	private volatile boolean closing = false;
+	
+	//set while the writer thread is going to sleep, so callers know to wake it.  it checks for entries again after setting this, so none is missed
+	private volatile boolean idle = false;
+	
+	PluginLog(Logger console, File folder, int fileKilobytes, int filesKept, int entriesPerMinute)
+	{
+		super("AntiXRay log writer");
+		this.setDaemon(true);
+		
+		this.console = console;
+		this.folder = folder;
+		this.maxFileBytes = fileKilobytes * 1024L;
+		this.filesKept = filesKept;
+		this.entriesPerMinute = entriesPerMinute;
+		
+		for(int i = 0; i < this.slots.length; i++)
+		{
+			this.slots[i] = new Slot();
+		}
+	}
+	
+	//adds an entry.  never waits: if an alert's kind is over its limit or the buffer is full, the alert is only counted
+	void add(Kind kind, String text, String playerName, String worldName, int x, int y, int z)
+	{
+		long now = System.currentTimeMillis();
+		if(kind.limited && !this.allow(kind, now)) return;
+		
+		long sequence;
+		do
+		{
+			sequence = this.claimed.get();
+			if(sequence - this.written >= this.slots.length)
+			{
+				//a general entry is written right away rather than lost, though it misses the log file
+				if(!kind.limited) this.console.info("AntiXRay: " + format(kind, text, playerName, worldName, x, y, z));
+				else this.dropped.incrementAndGet();
+				return;
+			}
+		}
+		while(!this.claimed.compareAndSet(sequence, sequence + 1));
+		
+		Slot slot = this.slots[(int)(sequence & (this.slots.length - 1))];
+		slot.time = now;
+		slot.kind = kind;
+		slot.text = text;
+		slot.playerName = playerName;
+		slot.worldName = worldName;
+		slot.x = x;
+		slot.y = y;
+		slot.z = z;
+		slot.sequence = sequence;
+		
+		if(this.idle) LockSupport.unpark(this);
+	}
+	
+	//counts an entry against its kind's limit for the current minute
+	private boolean allow(Kind kind, long now)
+	{
+		int index = kind.ordinal();
+		long minuteStart = this.minuteStarts.get(index);
+		if(now - minuteStart >= 60 * 1000L && this.minuteStarts.compareAndSet(index, minuteStart, now))
+		{
+			this.minuteCounts.set(index, 0);
+		}
+		
+		if(this.minuteCounts.incrementAndGet(index) <= this.entriesPerMinute) return true;
+		
+		this.suppressed.incrementAndGet(index);
+		return false;
+	}
+	
+	//puts an entry's line together.  also used when logging directly, before the log has started or after it's closed
+	static String format(Kind kind, String text, String playerName, String worldName, int x, int y, int z)
+	{
+		if(kind == Kind.General) return text;
+		return playerName + kind.text + worldName + "(" + x + "," + y + "," + z + ")";
+	}
+	
+	@Override
+	public void run()
+	{
+		this.openFile();
+		
+		long next = 0;
+		while(true)
+		{
+			Slot slot = this.slots[(int)(next & (this.slots.length - 1))];
+			if(slot.sequence == next)
+			{
+				String line = format(slot.kind, slot.text, slot.playerName, slot.worldName, slot.x, slot.y, slot.z);
+				long time = slot.time;
+				
+				//let go of the slot before writing, so a caller can reuse it sooner
+				slot.kind = null;
+				slot.text = slot.playerName = slot.worldName = null;
+				this.written = ++next;
+				
+				this.write(time, line);
+				continue;
+			}
+			
+			//caught up
+			this.reportHeldBack();
+			this.flushFile();
+			
+			if(this.closing && this.claimed.get() == next) break;
+			
+			//sleep until a caller adds an entry
+			this.idle = true;
+			if(this.slots[(int)(next & (this.slots.length - 1))].sequence != next && !this.closing)
+			{
+				LockSupport.parkNanos(this, IDLE_MILLISECONDS * 1000000L);
+			}
+			this.idle = false;
+			
+			if(Thread.interrupted()) this.closing = true;
+		}
+		
+		this.closeFile();
+	}
+	
+	//mentions entries which were suppressed or dropped since the last time
+	private void reportHeldBack()
+	{
+		long now = System.currentTimeMillis();
+		Kind [] kinds = Kind.values();
+		for(int i = 0; i < kinds.length; i++)
+		{
+			int count = this.suppressed.getAndSet(i, 0);
+			if(count > 0) this.write(now, "Left out " + count + " more " + kinds[i].name() + " log entries (the limit is " + this.entriesPerMinute + " per minute).");
+		}
+		
+		long count = this.dropped.getAndSet(0);
+		if(count > 0) this.write(now, "Left out " + count + " alerts because they were coming in faster than they could be written.");
+	}
+	
+	private void write(long time, String line)
+	{
+		this.console.info("AntiXRay: " + line);
+		
+		if(this.fileWriter == null) return;
+		
+		try
+		{
+			String fileLine = "[" + this.timestampFormat.format(new Date(time)) + "] " + line + System.getProperty("line.separator");
+			this.fileWriter.write(fileLine);
+			this.fileBytes += utf8Length(fileLine);
+			
+			if(this.fileBytes >= this.maxFileBytes)
+			{
+				this.closeFile();
+				this.rotateFiles();
+				this.openFile();
+			}
+		}
+		catch(IOException e)
+		{
+			this.console.warning("AntiXRay: Unable to write to the log file: " + e.getMessage() + "  Logging to the console only.");
+			this.closeFile();
+		}
+	}
+	
+	//how many bytes a line takes up in the file, without encoding it twice
+	private static int utf8Length(String line)
+	{
+		int length = 0;
+		for(int i = 0; i < line.length(); i++)
+		{
+			char c = line.charAt(i);
+			if(c < 0x80) length += 1;
+			else if(c < 0x800) length += 2;
+			else if(Character.isHighSurrogate(c) && i + 1 < line.length() && Character.isLowSurrogate(line.charAt(i + 1)))
+			{
+				length += 4;
+				i++;
+			}
+			else length += 3;
+		}
+		
+		return length;
+	}
+	
+	private File getFile(int number)
+	{
+		return new File(this.folder, number == 0 ? LOG_FILE_NAME + ".log" : LOG_FILE_NAME + "." + number + ".log");
+	}
+	
+	//opens the current log file to add to it
+	private void openFile()
+	{
+		if(this.maxFileBytes == 0) return;
+		
+		try
+		{
+			this.folder.mkdirs();
+			File file = this.getFile(0);
+			this.fileBytes = file.length();
+			this.fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+		}
+		catch(IOException e)
+		{
+			this.console.warning("AntiXRay: Unable to open the log file in \"" + this.folder.getPath() + "\": " + e.getMessage() + "  Logging to the console only.");
+		}
+	}
+	
+	//AntiXRay.log becomes AntiXRay.1.log, that becomes AntiXRay.2.log, and so on.  the oldest is deleted
+	private void rotateFiles()
+	{
+		this.getFile(this.filesKept).delete();
+		for(int i = this.filesKept - 1; i >= 0; i--)
+		{
+			File file = this.getFile(i);
+			if(file.exists()) file.renameTo(this.getFile(i + 1));
+		}
+		
+		//when no rotated files are kept, the current one is simply started over
+		this.getFile(0).delete();
+	}
+	
+	private void flushFile()
+	{
+		if(this.fileWriter == null) return;
+		
+		try
+		{
+			this.fileWriter.flush();
+		}
+		catch(IOException e) {}
+	}
+	
+	private void closeFile()
+	{
+		if(this.fileWriter == null) return;
+		
+		try
+		{
+			this.fileWriter.close();
+		}
+		catch(IOException e) {}
+		
+		this.fileWriter = null;
+	}
+	
+	//writes whatever's left and stops the writer thread.  called on shutdown
+	void close()
+	{
+		this.closing = true;
+		LockSupport.unpark(this);
+		
+		try
+		{
+			this.join(10 * 1000);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.concurrent.Future;
+
+//lets other plugins read and change players' points, online or not.  get it from Bukkit's services manager:
+//	PointsService points = getServer().getServicesManager().load(PointsService.class);
+//every call may be made from any thread and returns at once.  players whose data is in memory are handled right away, the rest once their data has been loaded in the background
+//wait on a result (Future.get()) only off the main thread, or when Future.isDone() says it's ready.  if a player's data can't be loaded, or the plugin is being disabled, get() throws an ExecutionException
+public interface PointsService
+{
+	//a player's points, or null if he's never been on the server
+	Future<Integer> getPoints(String playerName);
+	
+	//gives a player points (or takes them, when negative), up to the configured maximum.  the result is his new total, or null if he's never been on the server
+	Future<Integer> givePoints(String playerName, int amount);
+	
+	//takes points from a player only if he has at least that many.  the result is whether they were taken, which is false for a player who's never been on the server
+	Future<Boolean> chargePoints(String playerName, int cost);
+	
+	//sets a player's points.  the result is whether he was found
+	Future<Boolean> setPoints(String playerName, int points);
+}
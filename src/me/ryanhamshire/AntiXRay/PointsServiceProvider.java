@@ -0,0 +1,203 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.ryanhamshire.AntiXRay;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+//FEATURE: other plugins can read and change points through Bukkit's services manager, from any thread
+
+//the PointsService registered with the server.  changes are made with PlayerData's atomic point methods, so they don't need the main thread, and are saved like any other change: by the next checkpoint
+class PointsServiceProvider implements PointsService
+{
+	//how many players' data may be loading from storage at once
+	private final static int LOADER_THREADS = 2;
+	
+	private DataStore dataStore;
+	
+	//loads players who aren't in memory
+	private ExecutorService loader;
+	
+	//set once the plugin is being disabled, after which nothing more can be changed
+	private volatile boolean closed = false;
+	
+	PointsServiceProvider(DataStore dataStore)
+	{
+		this.dataStore = dataStore;
+		this.loader = Executors.newFixedThreadPool(LOADER_THREADS, new ThreadFactory()
+		{
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "AntiXRay points service");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	public Future<Integer> getPoints(String playerName)
+	{
+		return this.submit(playerName, new Operation<Integer>()
+		{
+			Integer apply(PlayerData playerData)
+			{
+				return playerData.getPoints();
+			}
+		}, null);
+	}
+	
+	public Future<Integer> givePoints(final String playerName, final int amount)
+	{
+		return this.submit(playerName, new Operation<Integer>()
+		{
+			Integer apply(PlayerData playerData)
+			{
+				int points = playerData.addPoints(amount, AntiXRay.instance.config.maxPoints);
+				playerData.dirty = true;
+				AntiXRay.instance.leaderboard.pointsChanged(playerName, points);
+				return points;
+			}
+		}, null);
+	}
+	
+	public Future<Boolean> chargePoints(final String playerName, final int cost)
+	{
+		return this.submit(playerName, new Operation<Boolean>()
+		{
+			Boolean apply(PlayerData playerData)
+			{
+				if(!playerData.tryCharge(cost)) return false;
+				playerData.dirty = true;
+				AntiXRay.instance.leaderboard.pointsChanged(playerName, playerData.getPoints());
+				return true;
+			}
+		}, false);
+	}
+	
+	public Future<Boolean> setPoints(final String playerName, final int points)
+	{
+		return this.submit(playerName, new Operation<Boolean>()
+		{
+			Boolean apply(PlayerData playerData)
+			{
+				playerData.setPoints(points);
+				playerData.dirty = true;
+				AntiXRay.instance.leaderboard.pointsChanged(playerName, points);
+				return true;
+			}
+		}, false);
+	}
+	
+	//something to do with one player's data
+	private static abstract class Operation<T>
+	{
+		abstract T apply(PlayerData playerData);
+	}
+	
+	//does an operation on a player's data.  when it's in memory, right away on the calling thread.  otherwise on a loader thread, so the caller never waits on storage
+	private <T> Future<T> submit(final String playerName, final Operation<T> operation, final T ifNeverPlayed)
+	{
+		if(this.closed) return failed("the points service has been shut down");
+		
+		FutureTask<T> task = new FutureTask<T>(new Callable<T>()
+		{
+			public T call() throws IOException
+			{
+				DataStore dataStore = PointsServiceProvider.this.dataStore;
+				PlayerData playerData = dataStore.getOfflinePlayerData(playerName);
+				if(playerData == null) return ifNeverPlayed;
+				
+				//the cache's lock keeps his data from being saved and dropped (he quit, or it was pushed out) while it's being changed
+				T result;
+				boolean inMemory;
+				synchronized(dataStore.playerDataCache)
+				{
+					result = operation.apply(playerData);
+					inMemory = dataStore.playerDataCache.find(playerName) == playerData;
+				}
+				
+				//if it was dropped before the change, no checkpoint will see it, so save it here
+				if(!inMemory && playerData.dirty)
+				{
+					playerData.dirty = false;
+					dataStore.savePlayerData(playerName, playerData);
+				}
+				
+				return result;
+			}
+		});
+		
+		if(this.dataStore.playerDataCache.containsName(playerName))
+		{
+			task.run();
+		}
+		else
+		{
+			try
+			{
+				this.loader.execute(task);
+			}
+			catch(RejectedExecutionException e)
+			{
+				return failed("the points service has been shut down");
+			}
+		}
+		
+		return task;
+	}
+	
+	//a result for an operation which couldn't be done, whose get() throws an ExecutionException
+	private static <T> Future<T> failed(final String reason)
+	{
+		FutureTask<T> task = new FutureTask<T>(new Callable<T>()
+		{
+			public T call()
+			{
+				throw new IllegalStateException(reason);
+			}
+		});
+		
+		task.run();
+		return task;
+	}
+	
+	//finishes any operations already asked for, so the shutdown save includes them
+	void close()
+	{
+		this.closed = true;
+		this.loader.shutdown();
+		
+		try
+		{
+			this.loader.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
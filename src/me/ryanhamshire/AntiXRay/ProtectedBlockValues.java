@@ -0,0 +1,206 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.block.Block;
+
+//compiled form of the protected blocks list from the config file, with its optional depth and biome tiers
+//everything is worked out ahead of time into flat tables: a value per material for each band of heights where any tier starts or ends, plus rows of
+//per-biome values for the few materials with biome tiers.  so a lookup during a block event is a couple of array reads, however many tiers there are
+class ProtectedBlockValues
+{
+	//marks a material which isn't in the protected blocks list at all
+	final static int NOT_PROTECTED = Integer.MIN_VALUE;
+	
+	//marks a biome without a tier of its own, in the biome rows
+	private final static int NO_BIOME_TIER = Integer.MAX_VALUE;
+	
+	//heights of the blocks in a world.  blocks outside this range use the nearest band
+	private final static int WORLD_HEIGHT = 256;
+	
+	//a different value for a material between two heights (inclusive)
+	static class DepthTier
+	{
+		final Material material;
+		final int minY;
+		final int maxY;
+		final int value;
+		
+		DepthTier(Material material, int minY, int maxY, int value)
+		{
+			this.material = material;
+			this.minY = minY;
+			this.maxY = maxY;
+			this.value = value;
+		}
+	}
+	
+	//a different value for a material in one biome, at any height
+	static class BiomeTier
+	{
+		final Material material;
+		final Biome biome;
+		final int value;
+		
+		BiomeTier(Material material, Biome biome, int value)
+		{
+			this.material = material;
+			this.biome = biome;
+			this.value = value;
+		}
+	}
+	
+	private final int materialCount = Material.values().length;
+	private final int biomeCount = Biome.values().length;
+	
+	//which band each height is in
+	private final int [] bandsByY = new int[WORLD_HEIGHT];
+	
+	//one row per band, one slot per material, holding that material's point value there or NOT_PROTECTED
+	private final int [] values;
+	
+	//per material, which row of biomeValues holds its biome tiers, or -1 when it has none.  each row has a slot per biome
+	private final int [] biomeRows;
+	private final int [] biomeValues;
+	
+	//per material, whether it costs points anywhere
+	private final boolean [] costsPoints;
+	
+	//builds the tables once from the validated config lists.  where tiers overlap, the one listed later wins, and biome tiers win over depth tiers
+	ProtectedBlockValues(List<SimpleEntry<Material, Integer>> protectedBlocks, List<DepthTier> depthTiers, List<BiomeTier> biomeTiers)
+	{
+		//split the heights into bands wherever a depth tier starts or ends
+		TreeSet<Integer> bandStarts = new TreeSet<Integer>();
+		bandStarts.add(0);
+		for(int i = 0; i < depthTiers.size(); i++)
+		{
+			DepthTier tier = depthTiers.get(i);
+			if(tier.minY > 0 && tier.minY < WORLD_HEIGHT) bandStarts.add(tier.minY);
+			if(tier.maxY + 1 > 0 && tier.maxY + 1 < WORLD_HEIGHT) bandStarts.add(tier.maxY + 1);
+		}
+		
+		int [] bandMinYs = new int[bandStarts.size()];
+		int band = -1;
+		for(int y = 0; y < WORLD_HEIGHT; y++)
+		{
+			if(bandStarts.contains(y)) bandMinYs[++band] = y;
+			this.bandsByY[y] = band;
+		}
+		
+		//every band starts out with the plain values
+		this.values = new int[bandMinYs.length * this.materialCount];
+		for(int i = 0; i < this.values.length; i++)
+		{
+			this.values[i] = NOT_PROTECTED;
+		}
+		
+		for(int i = 0; i < protectedBlocks.size(); i++)
+		{
+			SimpleEntry<Material, Integer> entry = protectedBlocks.get(i);
+			for(band = 0; band < bandMinYs.length; band++)
+			{
+				this.values[band * this.materialCount + entry.getKey().ordinal()] = entry.getValue().intValue();
+			}
+		}
+		
+		//then depth tiers replace them in the bands they cover.  bands never straddle a tier's edge, so checking where a band starts is enough
+		for(int i = 0; i < depthTiers.size(); i++)
+		{
+			DepthTier tier = depthTiers.get(i);
+			for(band = 0; band < bandMinYs.length; band++)
+			{
+				if(bandMinYs[band] >= tier.minY && bandMinYs[band] <= tier.maxY)
+				{
+					this.values[band * this.materialCount + tier.material.ordinal()] = tier.value;
+				}
+			}
+		}
+		
+		//a row of biome values for each material with biome tiers
+		this.biomeRows = new int[this.materialCount];
+		for(int i = 0; i < this.biomeRows.length; i++)
+		{
+			this.biomeRows[i] = -1;
+		}
+		
+		int rowCount = 0;
+		for(int i = 0; i < biomeTiers.size(); i++)
+		{
+			int material = biomeTiers.get(i).material.ordinal();
+			if(this.biomeRows[material] < 0) this.biomeRows[material] = rowCount++;
+		}
+		
+		this.biomeValues = new int[rowCount * this.biomeCount];
+		for(int i = 0; i < this.biomeValues.length; i++)
+		{
+			this.biomeValues[i] = NO_BIOME_TIER;
+		}
+		
+		for(int i = 0; i < biomeTiers.size(); i++)
+		{
+			BiomeTier tier = biomeTiers.get(i);
+			this.biomeValues[this.biomeRows[tier.material.ordinal()] * this.biomeCount + tier.biome.ordinal()] = tier.value;
+		}
+		
+		//a material costs points somewhere if any band or biome gives it a positive value
+		this.costsPoints = new boolean[this.materialCount];
+		for(int i = 0; i < this.values.length; i++)
+		{
+			if(this.values[i] > 0) this.costsPoints[i % this.materialCount] = true;
+		}
+		
+		for(int i = 0; i < biomeTiers.size(); i++)
+		{
+			BiomeTier tier = biomeTiers.get(i);
+			if(tier.value > 0) this.costsPoints[tier.material.ordinal()] = true;
+		}
+	}
+	
+	//returns the points required to break this block, where it is, or NOT_PROTECTED when its type isn't in the list there
+	//only blocks of a material with biome tiers have their biome looked up
+	int getValue(Block block)
+	{
+		int material = block.getType().ordinal();
+		
+		int biomeRow = this.biomeRows[material];
+		if(biomeRow >= 0)
+		{
+			int value = this.biomeValues[biomeRow * this.biomeCount + block.getBiome().ordinal()];
+			if(value != NO_BIOME_TIER) return value;
+		}
+		
+		int y = block.getY();
+		if(y < 0) y = 0;
+		else if(y >= WORLD_HEIGHT) y = WORLD_HEIGHT - 1;
+		
+		return this.values[this.bandsByY[y] * this.materialCount + material];
+	}
+	
+	//whether an explosion should leave this block type alone (only blocks which cost points somewhere are protected from explosions)
+	boolean isProtectedFromExplosions(Material material)
+	{
+		return this.costsPoints[material.ordinal()];
+	}
+}
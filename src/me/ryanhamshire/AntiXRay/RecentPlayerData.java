@@ -0,0 +1,58 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import org.bukkit.entity.Player;
+
+//the data of players who've recently broken blocks or moved, in slots picked by entity ID.  those events come far more often than anything else,
+//and this finds the player's data with an array read instead of a cache lookup.  entity IDs are never reused, so a slot can't be mistaken for someone else's
+//only used from the main thread
+class RecentPlayerData
+{
+	private final static int SLOTS = 64;
+	private int [] entityIDs = new int[SLOTS];
+	private PlayerData [] playerData = new PlayerData[SLOTS];
+	
+	private DataStore dataStore;
+	
+	RecentPlayerData(DataStore dataStore)
+	{
+		this.dataStore = dataStore;
+	}
+	
+	//finds a player's data, usually without going to the player data cache
+	PlayerData get(Player player)
+	{
+		int entityID = player.getEntityId();
+		int slot = entityID & (SLOTS - 1);
+		PlayerData playerData = this.playerData[slot];
+		if(playerData != null && this.entityIDs[slot] == entityID) return playerData;
+		
+		playerData = this.dataStore.getPlayerData(player);
+		
+		//a stand-in for data which couldn't be loaded is only good for this event
+		if(!playerData.unavailable)
+		{
+			this.entityIDs[slot] = entityID;
+			this.playerData[slot] = playerData;
+		}
+		
+		return playerData;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import org.bukkit.entity.Player;
+
+//runs every 30 seconds in the main thread, re-checks each online player's permissions: whether he's exempt from the rules, and whether he receives moderator notifications
+//Bukkit has no event for permission changes, so this catches players who gain or lose permissions while online
+class RefreshPermissionsTask implements Runnable
+{
+	@Override
+	public void run()
+	{
+		Player [] players = AntiXRay.instance.getServer().getOnlinePlayers();
+		DataStore dataStore = AntiXRay.instance.dataStore;
+		
+		for(int i = 0; i < players.length; i++)
+		{
+			Player player = players[i];
+			AntiXRay.refreshPermissions(player, dataStore.getPlayerData(player), player.getGameMode());
+		}
+	}
+}
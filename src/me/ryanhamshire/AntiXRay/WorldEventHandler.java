@@ -0,0 +1,72 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+//handles events related to worlds
+class WorldEventHandler implements Listener
+{
+	//when a chunk loads...
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkLoad(ChunkLoadEvent event)
+	{
+		//keep track of placed blocks in enabled worlds only
+		if(AntiXRay.instance.config.enabledWorlds.getRules(event.getWorld()) == null) return;
+		
+		AntiXRay.instance.placedBlocks.chunkLoaded(event.getChunk());
+	}
+	
+	//when a chunk unloads...
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onChunkUnload(ChunkUnloadEvent event)
+	{
+		AntiXRay.instance.placedBlocks.chunkUnloaded(event.getChunk());
+	}
+	
+	//when a world saves...
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onWorldSave(WorldSaveEvent event)
+	{
+		//save placed blocks along with it
+		AntiXRay.instance.placedBlocks.saveWorld(event.getWorld(), false);
+	}
+	
+	//when a world loads (for example, one created or reloaded by a multiworld plugin)...
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onWorldLoad(WorldLoadEvent event)
+	{
+		AntiXRay.instance.config.enabledWorlds.worldLoaded(event.getWorld());
+	}
+	
+	//when a world unloads...
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onWorldUnload(WorldUnloadEvent event)
+	{
+		AntiXRay.instance.config.enabledWorlds.worldUnloaded(event.getWorld());
+		AntiXRay.instance.placedBlocks.saveWorld(event.getWorld(), true);
+	}
+}
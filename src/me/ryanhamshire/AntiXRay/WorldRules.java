@@ -0,0 +1,39 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+//the rules which apply in one world.  worlds without their own settings in the config file share the global rules
+class WorldRules
+{
+	//how quickly players earn points in this world
+	final int pointsPerHour;
+	
+	//the upper limit on points in this world
+	final int maxPoints;
+	
+	//points required to break various block types in this world
+	final ProtectedBlockValues protectedBlockValues;
+	
+	WorldRules(int pointsPerHour, int maxPoints, ProtectedBlockValues protectedBlockValues)
+	{
+		this.pointsPerHour = pointsPerHour;
+		this.maxPoints = maxPoints;
+		this.protectedBlockValues = protectedBlockValues;
+	}
+}
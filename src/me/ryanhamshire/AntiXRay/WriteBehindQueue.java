@@ -0,0 +1,248 @@
+/*
+    AntiXRay Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.AntiXRay;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//background writer for player data.  saves are queued here from the main thread and written to storage in batches by a separate thread,
+//so a slow disk or database never holds up the server tick
+class WriteBehindQueue extends Thread
+{
+	//where the batches are written
+	private DataStore dataStore;
+	
+	//most player records which may be waiting to be written.  when full, callers wait a little for the writer to catch up, then go over it
+	private int capacity;
+	
+	//how long a caller may wait for room in a full queue, in milliseconds.  callers are usually the main thread, so storage that stays down must never hang it
+	//past that, the queue simply grows.  it still holds only the newest snapshot per player, so it can't grow past the number of players saved
+	private final static long MAX_ENQUEUE_WAIT = 50;
+	
+	//whether the queue has gone over capacity since it was last back under it, so the backlog is only reported once
+	private boolean overCapacity = false;
+	
+	//snapshots waiting to be written, by player name.  saving a player again before his last save was written just replaces the snapshot
+	private LinkedHashMap<String, PlayerData> pending = new LinkedHashMap<String, PlayerData>();
+	
+	//the batch currently being written, so that loads don't read a half-written record
+	private LinkedHashMap<String, PlayerData> inFlight = new LinkedHashMap<String, PlayerData>();
+	
+	//set when the data store is closing
+	private boolean stopping = false;
+	
+	//after a failed write, how long to wait before trying again, in milliseconds.  doubles with each failure in a row, up to the maximum
+	private final static long FIRST_RETRY_DELAY = 1000;
+	private final static long MAX_RETRY_DELAY = 60 * 1000;
+	
+	//when closing, how many times in a row a batch may fail before it's given up on, so a dead disk or database can't hang the shutdown
+	private final static int MAX_FAILURES_WHEN_STOPPING = 3;
+	
+	WriteBehindQueue(DataStore dataStore, int capacity)
+	{
+		super("AntiXRay data writer");
+		this.dataStore = dataStore;
+		this.capacity = capacity;
+		this.setDaemon(true);
+	}
+	
+	//queues a snapshot of player data for writing.  only waits when the queue is full, and then only briefly
+	synchronized void enqueue(String playerName, PlayerData snapshot)
+	{
+		this.enqueue(playerName, snapshot, System.currentTimeMillis() + MAX_ENQUEUE_WAIT);
+	}
+	
+	//queues a snapshot, waiting for room no later than the deadline
+	private synchronized void enqueue(String playerName, PlayerData snapshot, long deadline)
+	{
+		//if the queue is full and this player isn't already in it, give the writer a moment to make room
+		//once it's known to be backed up, don't wait at all until it has caught up, or every save would wait in turn
+		long remaining;
+		while(!this.stopping && !this.overCapacity && this.pending.size() >= this.capacity && !this.pending.containsKey(playerName)
+				&& (remaining = deadline - System.currentTimeMillis()) > 0)
+		{
+			try
+			{
+				this.wait(remaining);
+			}
+			catch(InterruptedException e)
+			{
+				//don't lose the data, just go over capacity this once
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		
+		//still full, so storage isn't keeping up (or is down).  keep the snapshot anyway rather than hold up the caller
+		if(this.pending.size() >= this.capacity && !this.pending.containsKey(playerName))
+		{
+			if(!this.overCapacity)
+			{
+				this.overCapacity = true;
+				AntiXRay.AddLogEntry("Player data is being saved faster than it can be written.  " + this.pending.size() + " players are waiting to be written, and more are being added.");
+			}
+		}
+		
+		//re-insert so that the most recently saved players are written last
+		this.pending.remove(playerName);
+		this.pending.put(playerName, snapshot);
+		this.notifyAll();
+	}
+	
+	//queues several snapshots for writing.  holding the lock throughout means the writer picks them all up as one batch (unless the queue fills up)
+	//the whole batch shares one short wait for room, not one per player
+	synchronized void enqueueAll(Map<String, PlayerData> snapshots)
+	{
+		long deadline = System.currentTimeMillis() + MAX_ENQUEUE_WAIT;
+		for(Map.Entry<String, PlayerData> entry : snapshots.entrySet())
+		{
+			this.enqueue(entry.getKey(), entry.getValue(), deadline);
+		}
+	}
+	
+	//returns the newest not-yet-written snapshot for a player, or null if there's nothing waiting for him
+	synchronized PlayerData getPending(String playerName)
+	{
+		PlayerData snapshot = this.pending.get(playerName);
+		if(snapshot == null) snapshot = this.inFlight.get(playerName);
+		return snapshot;
+	}
+	
+	//waits until everything queued so far has been written
+	synchronized void awaitIdle() throws InterruptedException
+	{
+		while((!this.pending.isEmpty() || !this.inFlight.isEmpty()) && this.isAlive())
+		{
+			this.wait(1000);
+		}
+	}
+	
+	//writes everything queued so far and stops the writer thread, waiting until it's done
+	void shutdown()
+	{
+		synchronized(this)
+		{
+			this.stopping = true;
+			this.notifyAll();
+		}
+		
+		try
+		{
+			this.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Override
+	public void run()
+	{
+		int failures = 0;
+		while(true)
+		{
+			LinkedHashMap<String, PlayerData> batch;
+			synchronized(this)
+			{
+				this.inFlight.clear();
+				
+				//wake up anyone waiting for the last batch to be written
+				this.notifyAll();
+				
+				//wait for work
+				while(this.pending.isEmpty() && !this.stopping)
+				{
+					try
+					{
+						this.wait();
+					}
+					catch(InterruptedException e) { }
+				}
+				
+				//nothing left to write and closing, so done
+				if(this.pending.isEmpty()) return;
+				
+				//take everything queued so far as one batch
+				batch = this.pending;
+				this.pending = this.inFlight;
+				this.inFlight = batch;
+				
+				//wake up anyone waiting for room in the queue
+				this.notifyAll();
+			}
+			
+			//write outside the lock, so the main thread can keep queuing in the meantime
+			try
+			{
+				this.dataStore.writePlayerDataBatch(batch);
+				failures = 0;
+				
+				synchronized(this)
+				{
+					if(this.overCapacity && this.pending.size() < this.capacity)
+					{
+						this.overCapacity = false;
+						AntiXRay.AddLogEntry("Caught up on the player data waiting to be written.");
+					}
+				}
+			}
+			catch(Exception e)
+			{
+				failures++;
+				this.retryLater(batch, failures, e);
+			}
+		}
+	}
+	
+	//puts a batch which couldn't be written back in the queue, then waits a while before the next try
+	//a player saved again in the meantime is left alone, since his newer snapshot replaces the failed one
+	private synchronized void retryLater(LinkedHashMap<String, PlayerData> batch, int failures, Exception e)
+	{
+		if(this.stopping && failures >= MAX_FAILURES_WHEN_STOPPING)
+		{
+			AntiXRay.AddLogEntry("Unable to write data for " + batch.size() + " players while shutting down, giving up: " + e.getMessage());
+			return;
+		}
+		
+		long delay = Math.min(FIRST_RETRY_DELAY << Math.min(failures - 1, 16), MAX_RETRY_DELAY);
+		AntiXRay.AddLogEntry("Unable to write data for " + batch.size() + " players, trying again in " + (delay / 1000) + " seconds: " + e.getMessage());
+		
+		for(Map.Entry<String, PlayerData> entry : batch.entrySet())
+		{
+			if(!this.pending.containsKey(entry.getKey()))
+			{
+				this.pending.put(entry.getKey(), entry.getValue());
+			}
+		}
+		
+		//waiting releases the lock, so saves can still be queued.  they just wake this early, so keep waiting until the time is up
+		//once closing, only the shortest wait, so the shutdown isn't held up for long
+		long start = System.currentTimeMillis();
+		long remaining;
+		while((remaining = start + (this.stopping ? FIRST_RETRY_DELAY : delay) - System.currentTimeMillis()) > 0)
+		{
+			try
+			{
+				this.wait(remaining);
+			}
+			catch(InterruptedException exception) { }
+		}
+	}
+}